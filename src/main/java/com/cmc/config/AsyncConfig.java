@@ -0,0 +1,71 @@
+package com.cmc.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AsyncConfig {
+    
+    /**
+     * Thread pool render trang PDF thành ảnh.
+     * Queue có giới hạn, khi đầy thì thread gọi tự render (back-pressure).
+     */
+    @Bean
+    public ThreadPoolTaskExecutor pageRenderExecutor(
+            @Value("${rendering.parallelism:0}") int parallelism,
+            @Value("${rendering.queue-capacity:64}") int queueCapacity) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("page-render-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Thread pool xử lý upload ở background (mã hóa, render).
+     * Queue đầy thì job bị từ chối và đánh dấu FAILED.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor ingestionExecutor(
+            @Value("${ingestion.workers:2}") int workers,
+            @Value("${ingestion.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ingestion-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Thread pool prefetch trang người đọc sắp xem, ưu tiên thấp hơn request thật:
+     * ít thread, priority thấp nhất, queue đầy thì prefetch bị bỏ (không chạy trên thread request).
+     */
+    @Bean
+    public ThreadPoolTaskExecutor pagePrefetchExecutor(
+            @Value("${prefetch.workers:1}") int workers,
+            @Value("${prefetch.queue-capacity:64}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("page-prefetch-");
+        executor.setThreadPriority(Thread.MIN_PRIORITY);
+        executor.setDaemon(true);
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -77,4 +77,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         filterChain.doFilter(request, response);
     }
+    
+    /**
+     * URL ảnh đã ký (/public/pages/...) tự kiểm tra chữ ký, không cần parse JWT và load user
+     */
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return request.getServletPath().startsWith("/public/");
+    }
 }
@@ -0,0 +1,73 @@
+package com.cmc.config;
+
+import com.cmc.service.PageImage;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+
+/**
+ * Ghi PageImage ra response. Ảnh trên đĩa được giao cho Tomcat gửi bằng sendfile
+ * (kernel copy thẳng từ page cache ra socket, không qua heap); server không hỗ trợ
+ * thì copy qua FileChannel.transferTo.
+ * Spring Boot tự thêm mọi HttpMessageConverter bean vào danh sách converter của MVC.
+ */
+@Component
+public class PageImageHttpMessageConverter extends AbstractHttpMessageConverter<PageImage> {
+    
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    
+    public PageImageHttpMessageConverter() {
+        super(MediaType.IMAGE_JPEG);
+    }
+    
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PageImage.class.isAssignableFrom(clazz);
+    }
+    
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+    
+    @Override
+    protected PageImage readInternal(Class<? extends PageImage> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("PageImage is write-only", inputMessage);
+    }
+    
+    @Override
+    protected Long getContentLength(PageImage image, MediaType contentType) {
+        return image.getLength();
+    }
+    
+    @Override
+    protected void writeInternal(PageImage image, HttpOutputMessage outputMessage) throws IOException {
+        HttpServletRequest request = currentRequest();
+        if (image.getFile() != null && request != null
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // Không ghi body, Tomcat gửi file sau khi request xử lý xong
+            request.setAttribute(SENDFILE_FILENAME, image.getFile().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, image.getLength());
+            return;
+        }
+        image.writeTo(outputMessage.getBody());
+    }
+    
+    private static HttpServletRequest currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes servletAttributes ? servletAttributes.getRequest() : null;
+    }
+}
@@ -50,11 +50,17 @@ public class SecurityConfig {
                 .requestMatchers("/books/list").authenticated()
                 .requestMatchers("/books/search").authenticated()
                 .requestMatchers("/books/{id}/info").authenticated()
+                .requestMatchers("/books/{id}/manifest").authenticated()
                 .requestMatchers("/books/{id}/page/{pageNumber}").authenticated()
+                .requestMatchers("/books/{id}/pages").authenticated()
+                .requestMatchers("/books/{id}/session").authenticated()
+                .requestMatchers("/books/{id}/thumbnail").authenticated()
                 .requestMatchers("/books/{id}/download").hasRole("VIP")
                 
                 // Admin only endpoints
                 .requestMatchers("/books/upload").hasRole("ADMIN")
+                .requestMatchers("/books/uploads/**").hasRole("ADMIN")
+                .requestMatchers("/books/jobs/**").hasRole("ADMIN")
                 .requestMatchers("/books/{id}/delete").hasRole("ADMIN")
                 .requestMatchers("/admin/**").hasRole("ADMIN")
                 
@@ -63,6 +69,10 @@ public class SecurityConfig {
                 .requestMatchers("/users/change-password").authenticated()
                 .requestMatchers("/users/manage/**").hasRole("ADMIN")
                 
+                // Actuator: health cho Docker healthcheck, metrics chỉ admin xem
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/actuator/**").hasRole("ADMIN")
+                
                 // Swagger UI
                 .requestMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
                 
@@ -1,8 +1,11 @@
 package com.cmc.config;
 
+import com.cmc.service.BookIngestionService;
+import com.cmc.service.ContainerMigrationService;
 import com.cmc.service.EncryptionService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
@@ -13,6 +16,12 @@ import org.springframework.stereotype.Component;
 public class StartupConfig implements ApplicationRunner {
     
     private final EncryptionService encryptionService;
+    private final BookIngestionService bookIngestionService;
+    private final ContainerMigrationService containerMigrationService;
+    
+    // Bật một lần khi nâng cấp: java -jar app.jar --storage.migrate-containers=true
+    @Value("${storage.migrate-containers:false}")
+    private boolean migrateContainers;
     
     @Override
     public void run(ApplicationArguments args) throws Exception {
@@ -26,6 +35,17 @@ public class StartupConfig implements ApplicationRunner {
             throw e;
         }
         
+        if (migrateContainers) {
+            log.info("📦 Migrating books to .book containers...");
+            int migrated = containerMigrationService.migrateAll();
+            log.info("✅ Migrated {} books to .book containers", migrated);
+        }
+        
+        int resumedJobs = bookIngestionService.resumeInterruptedJobs();
+        if (resumedJobs > 0) {
+            log.info("🔄 Resumed {} interrupted ingestion jobs", resumedJobs);
+        }
+        
         log.info("🚀 Online Library Encryption System is ready!");
     }
 }
@@ -1,9 +1,21 @@
 package com.cmc.controller;
 
 import com.cmc.dto.ApiResponse;
+import com.cmc.dto.BookManifest;
+import com.cmc.dto.BookSession;
+import com.cmc.dto.ChunkedUploadInitRequest;
+import com.cmc.dto.ChunkedUploadSession;
+import com.cmc.dto.ResourceVersion;
 import com.cmc.entity.Book;
+import com.cmc.entity.ImageTier;
+import com.cmc.entity.IngestionJob;
 import com.cmc.entity.User;
+import com.cmc.service.BookDescriptor;
 import com.cmc.service.BookService;
+import com.cmc.service.ChunkedUploadService;
+import com.cmc.service.PageBatch;
+import com.cmc.service.PageImage;
+import com.cmc.service.PdfContent;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -14,17 +26,30 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -35,34 +60,34 @@ import java.util.Optional;
 public class BookController {
     
     private final BookService bookService;
+    private final ChunkedUploadService chunkedUploadService;
     
     @PostMapping("/upload")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(
         summary = "📤 Upload sách mới",
-        description = "Chỉ Admin có thể upload sách. File PDF sẽ được mã hóa và lưu trữ an toàn.",
+        description = "Chỉ Admin có thể upload sách. File PDF được lưu tạm và xử lý (mã hóa, render ảnh) ở background. " +
+                      "Theo dõi tiến độ qua GET /books/jobs/{jobId}.",
         security = @SecurityRequirement(name = "bearerAuth")
     )
     @ApiResponses(value = {
         @io.swagger.v3.oas.annotations.responses.ApiResponse(
-            responseCode = "200", 
-            description = "Upload thành công",
+            responseCode = "202", 
+            description = "Đã nhận file, đang xử lý",
             content = @Content(
                 mediaType = "application/json",
-                schema = @Schema(implementation = Book.class),
+                schema = @Schema(implementation = IngestionJob.class),
                 examples = @ExampleObject(
                     value = """
                     {
                         "success": true,
-                        "message": "Book uploaded successfully",
+                        "message": "Book accepted for processing",
                         "data": {
-                            "id": 1,
-                            "title": "Java Programming",
-                            "author": "Oracle",
-                            "description": "Complete Java guide",
-                            "filePath": "encrypted_path",
-                            "uploadedBy": "admin",
-                            "uploadDate": "2024-01-01T10:00:00"
+                            "id": 10,
+                            "bookId": 1,
+                            "status": "QUEUED",
+                            "pagesRendered": 0,
+                            "createdAt": "2024-01-01T10:00:00"
                         }
                     }
                     """
@@ -100,7 +125,7 @@ public class BookController {
             )
         )
     })
-    public ResponseEntity<ApiResponse<Book>> uploadBook(
+    public ResponseEntity<ApiResponse<IngestionJob>> uploadBook(
             @Parameter(description = "File PDF để upload", required = true)
             @RequestParam("file") MultipartFile file,
             @Parameter(description = "Tiêu đề sách", required = true, example = "Java Programming")
@@ -112,8 +137,135 @@ public class BookController {
             @AuthenticationPrincipal User currentUser) {
         
         try {
-            Book book = bookService.uploadBook(file, title, author, description, currentUser);
-            return ResponseEntity.ok(ApiResponse.success("Book uploaded successfully", book));
+            IngestionJob job = bookService.uploadBook(file, title, author, description, currentUser);
+            return ResponseEntity.accepted().body(ApiResponse.success("Book accepted for processing", job));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("Upload failed: " + e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/jobs/{jobId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "⏳ Trạng thái xử lý upload",
+        description = "Xem tiến độ xử lý sách đã upload: giai đoạn hiện tại, số trang đã render, lỗi nếu có.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+        responseCode = "200", 
+        description = "Lấy trạng thái thành công",
+        content = @Content(
+            mediaType = "application/json",
+            examples = @ExampleObject(
+                value = """
+                {
+                    "success": true,
+                    "data": {
+                        "id": 10,
+                        "bookId": 1,
+                        "status": "RENDERING",
+                        "totalPages": 600,
+                        "pagesRendered": 245,
+                        "stageStartedAt": "2024-01-01T10:00:05"
+                    }
+                }
+                """
+            )
+        )
+    )
+    public ResponseEntity<ApiResponse<IngestionJob>> getIngestionJob(
+            @Parameter(description = "ID của job", required = true, example = "10")
+            @PathVariable Long jobId) {
+        try {
+            Optional<IngestionJob> job = bookService.getIngestionJob(jobId);
+            if (job.isPresent()) {
+                return ResponseEntity.ok(ApiResponse.success(job.get()));
+            } else {
+                return ResponseEntity.notFound().build();
+            }
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(ApiResponse.error("Failed to fetch job: " + e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/uploads")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "📦 Khởi tạo upload theo chunk",
+        description = "Dùng cho file lớn: khởi tạo phiên, gửi từng chunk qua PUT /books/uploads/{uploadId}/chunks/{index} " +
+                      "rồi gọi /complete. Mất kết nối thì xem GET /books/uploads/{uploadId} và gửi lại các chunk còn thiếu.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<ApiResponse<ChunkedUploadSession>> initChunkedUpload(
+            @Parameter(description = "Thông tin file và sách", required = true)
+            @RequestBody ChunkedUploadInitRequest request,
+            @AuthenticationPrincipal User currentUser) {
+        try {
+            ChunkedUploadSession session = chunkedUploadService.init(request, currentUser);
+            return ResponseEntity.ok(ApiResponse.success("Upload session created", session));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("Upload init failed: " + e.getMessage()));
+        }
+    }
+    
+    @PutMapping("/uploads/{uploadId}/chunks/{index}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "📦 Gửi một chunk",
+        description = "Body là dữ liệu nhị phân của chunk (application/octet-stream). " +
+                      "Header X-Chunk-SHA256 chứa SHA-256 (hex) của chunk. Gửi lại cùng chunk là an toàn.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<ApiResponse<ChunkedUploadSession>> uploadChunk(
+            @Parameter(description = "ID phiên upload", required = true)
+            @PathVariable String uploadId,
+            @Parameter(description = "Số thứ tự chunk (bắt đầu từ 0)", required = true, example = "0")
+            @PathVariable int index,
+            @Parameter(description = "SHA-256 (hex) của chunk", required = true)
+            @RequestHeader("X-Chunk-SHA256") String checksum,
+            @AuthenticationPrincipal User currentUser,
+            HttpServletRequest request) {
+        try {
+            ChunkedUploadSession session = chunkedUploadService.writeChunk(
+                    uploadId, index, checksum, request.getInputStream(), currentUser);
+            return ResponseEntity.ok(ApiResponse.success("Chunk received", session));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("Chunk upload failed: " + e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/uploads/{uploadId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "📦 Trạng thái upload theo chunk",
+        description = "Trả về các chunk đã nhận và còn thiếu để resume.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<ApiResponse<ChunkedUploadSession>> getChunkedUpload(
+            @Parameter(description = "ID phiên upload", required = true)
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal User currentUser) {
+        try {
+            return ResponseEntity.ok(ApiResponse.success(chunkedUploadService.getSession(uploadId, currentUser)));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("Failed to fetch upload: " + e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/uploads/{uploadId}/complete")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(
+        summary = "📦 Hoàn tất upload theo chunk",
+        description = "Kiểm tra đủ chunk và checksum, sau đó xử lý (mã hóa, render) ở background như POST /books/upload.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<ApiResponse<IngestionJob>> completeChunkedUpload(
+            @Parameter(description = "ID phiên upload", required = true)
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal User currentUser) {
+        try {
+            IngestionJob job = bookService.completeChunkedUpload(uploadId, currentUser);
+            return ResponseEntity.accepted().body(ApiResponse.success("Book accepted for processing", job));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error("Upload failed: " + e.getMessage()));
         }
@@ -267,10 +419,57 @@ public class BookController {
         }
     }
     
+    @GetMapping("/{id}/manifest")
+    @Operation(
+        summary = "🗂️ Manifest sách",
+        description = "Một response cho cả sách: số trang, kích thước pixel, dung lượng và phiên bản (etag) ảnh gốc từng trang, " +
+                      "các tier ảnh. Tạo sẵn lúc upload, dùng để dàn trang và prefetch/pipeline request ảnh phía client.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @ApiResponses(value = {
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "200", 
+            description = "Manifest của sách",
+            content = @Content(
+                mediaType = "application/json",
+                schema = @Schema(implementation = BookManifest.class)
+            )
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "304", 
+            description = "Manifest không đổi so với If-Modified-Since của client"
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "400", 
+            description = "Không tìm thấy sách hoặc lỗi đọc manifest"
+        )
+    })
+    public ResponseEntity<Resource> getBookManifest(
+            @Parameter(description = "ID của sách", required = true, example = "1")
+            @PathVariable Long id,
+            WebRequest webRequest) {
+        
+        try {
+            Resource manifest = new FileSystemResource(bookService.getBookManifest(id));
+            if (webRequest.checkNotModified(manifest.lastModified())) {
+                return null;
+            }
+            
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .cacheControl(CacheControl.maxAge(Duration.ofHours(1)).cachePrivate())
+                    .body(manifest);
+        
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
     @GetMapping("/{id}/page/{pageNumber}")
     @Operation(
         summary = "🖼️ Xem trang sách",
-        description = "Xem một trang cụ thể của sách dưới dạng hình ảnh có watermark. Miễn phí cho tất cả người dùng.",
+        description = "Xem một trang cụ thể của sách dưới dạng hình ảnh có watermark của người đang xem. Miễn phí cho tất cả người dùng. " +
+                      "Dùng width hoặc tier (THUMBNAIL, SMALL, MEDIUM, FULL) để lấy ảnh nhỏ hơn cho màn hình nhỏ.",
         security = @SecurityRequirement(name = "bearerAuth")
     )
     @ApiResponses(value = {
@@ -282,6 +481,10 @@ public class BookController {
                 schema = @Schema(type = "string", format = "binary")
             )
         ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "304", 
+            description = "Ảnh không đổi so với ETag (If-None-Match) / If-Modified-Since của client"
+        ),
         @io.swagger.v3.oas.annotations.responses.ApiResponse(
             responseCode = "400", 
             description = "Lỗi khi lấy trang sách"
@@ -295,25 +498,153 @@ public class BookController {
             description = "Không tìm thấy sách hoặc trang"
         )
     })
-    public ResponseEntity<byte[]> getBookPage(
+    public ResponseEntity<PageImage> getBookPage(
             @Parameter(description = "ID của sách", required = true, example = "1")
             @PathVariable Long id,
             @Parameter(description = "Số trang (bắt đầu từ 1)", required = true, example = "1")
             @PathVariable int pageNumber,
+            @Parameter(description = "Chiều rộng mong muốn (px), chọn tier nhỏ nhất đủ rộng", example = "480")
+            @RequestParam(value = "width", required = false) Integer width,
+            @Parameter(description = "Kích thước ảnh: THUMBNAIL, SMALL, MEDIUM, FULL", example = "MEDIUM")
+            @RequestParam(value = "tier", required = false) String tier,
+            @AuthenticationPrincipal User currentUser,
+            WebRequest webRequest) {
+        
+        try {
+            ImageTier imageTier = ImageTier.resolve(tier, width);
+            
+            // Client còn bản cũ hợp lệ: trả 304 trước khi đọc ảnh hay ghi log (ETag/Last-Modified đã được set)
+            ResourceVersion version = bookService.getPageVersion(id, pageNumber, imageTier, currentUser);
+            if (webRequest.checkNotModified(version.eTag(), version.lastModified())) {
+                return null;
+            }
+            
+            PageImage image = bookService.getBookPageImage(id, pageNumber, imageTier, currentUser);
+            
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.IMAGE_JPEG);
+            headers.setContentLength(image.getLength());
+            headers.setCacheControl("private, max-age=3600"); // Watermark theo người xem, không cache ở proxy
+            headers.setVary(List.of(HttpHeaders.AUTHORIZATION));
+            
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(image);
+        
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @GetMapping("/{id}/pages")
+    @Operation(
+        summary = "🖼️ Xem nhiều trang liên tiếp",
+        description = "Trả các trang from..to (có watermark) trong một response multipart/mixed, mỗi part là một ảnh JPEG " +
+                      "với Content-Length và Content-ID: <page-N>. Xác thực, kiểm tra sách và ghi log chỉ một lần cho cả khoảng trang. " +
+                      "Tối đa images.batch-max-pages trang mỗi request.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @ApiResponses(value = {
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "200", 
+            description = "Các trang dưới dạng multipart/mixed",
+            content = @Content(mediaType = "multipart/mixed")
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "400", 
+            description = "Khoảng trang không hợp lệ hoặc quá nhiều trang"
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "401", 
+            description = "Cần đăng nhập"
+        )
+    })
+    public ResponseEntity<StreamingResponseBody> getBookPages(
+            @Parameter(description = "ID của sách", required = true, example = "1")
+            @PathVariable Long id,
+            @Parameter(description = "Trang đầu (bắt đầu từ 1)", required = true, example = "1")
+            @RequestParam int from,
+            @Parameter(description = "Trang cuối (tính cả trang này)", required = true, example = "10")
+            @RequestParam int to,
+            @Parameter(description = "Chiều rộng mong muốn (px), chọn tier nhỏ nhất đủ rộng", example = "480")
+            @RequestParam(value = "width", required = false) Integer width,
+            @Parameter(description = "Kích thước ảnh: THUMBNAIL, SMALL, MEDIUM, FULL", example = "MEDIUM")
+            @RequestParam(value = "tier", required = false) String tier,
+            @AuthenticationPrincipal User currentUser) {
+        
+        try {
+            ImageTier imageTier = ImageTier.resolve(tier, width);
+            PageBatch batch = bookService.getBookPages(id, from, to, imageTier, currentUser);
+            
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(new MediaType("multipart", "mixed", Map.of("boundary", batch.getBoundary())));
+            headers.setCacheControl("private, max-age=3600"); // Watermark theo người xem, không cache ở proxy
+            headers.setVary(List.of(HttpHeaders.AUTHORIZATION));
+            
+            StreamingResponseBody body = batch::writeTo;
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(body);
+        
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @PostMapping("/{id}/session")
+    @Operation(
+        summary = "🔗 Mở phiên đọc (URL ảnh đã ký)",
+        description = "Kiểm tra quyền xem một lần và trả về URL ảnh cho từng trang from..to (mặc định cả sách), " +
+                      "ký HMAC theo người xem, sách, trang, tier và thời điểm hết hạn. URL dùng trực tiếp (thẻ img, reverse proxy cache) " +
+                      "không cần header Authorization; ghi một log xem cho cả phiên.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<ApiResponse<BookSession>> openReadingSession(
+            @Parameter(description = "ID của sách", required = true, example = "1")
+            @PathVariable Long id,
+            @Parameter(description = "Trang đầu (mặc định 1)", example = "1")
+            @RequestParam(required = false) Integer from,
+            @Parameter(description = "Trang cuối (mặc định trang cuối của sách)", example = "50")
+            @RequestParam(required = false) Integer to,
+            @Parameter(description = "Chiều rộng mong muốn (px), chọn tier nhỏ nhất đủ rộng", example = "480")
+            @RequestParam(value = "width", required = false) Integer width,
+            @Parameter(description = "Kích thước ảnh: THUMBNAIL, SMALL, MEDIUM, FULL", example = "MEDIUM")
+            @RequestParam(value = "tier", required = false) String tier,
             @AuthenticationPrincipal User currentUser) {
         
         try {
-            byte[] imageData = bookService.getBookPageImage(id, pageNumber, currentUser);
+            ImageTier imageTier = ImageTier.resolve(tier, width);
+            String baseUrl = ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+            BookSession session = bookService.openReadingSession(id, from, to, imageTier, currentUser, baseUrl);
+            return ResponseEntity.ok(ApiResponse.success("Reading session created", session));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error("Failed to open reading session: " + e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/{id}/thumbnail")
+    @Operation(
+        summary = "🖼️ Thumbnail sách",
+        description = "Ảnh thu nhỏ trang đầu, dùng cho danh sách sách.",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    public ResponseEntity<PageImage> getBookThumbnail(
+            @Parameter(description = "ID của sách", required = true, example = "1")
+            @PathVariable Long id) {
+        
+        try {
+            PageImage image = bookService.getBookThumbnail(id);
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.IMAGE_JPEG);
-            headers.setContentLength(imageData.length);
+            headers.setContentLength(image.getLength());
+            headers.setLastModified(image.getLastModified());
             headers.setCacheControl("max-age=3600"); // Cache 1 hour
             
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(imageData);
-                    
+                    .body(image);
+        
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
@@ -323,7 +654,8 @@ public class BookController {
     @PreAuthorize("hasRole('VIP')")
     @Operation(
         summary = "⬇️ Tải PDF gốc",
-        description = "Tải file PDF gốc không watermark. Chỉ dành cho người dùng VIP. Có ghi log tải về.",
+        description = "Tải file PDF gốc không watermark. Chỉ dành cho người dùng VIP. Có ghi log tải về. " +
+                      "Hỗ trợ Range/If-Range (206) để tải tiếp hoặc đọc từng phần.",
         security = @SecurityRequirement(name = "bearerAuth")
     )
     @ApiResponses(value = {
@@ -335,6 +667,18 @@ public class BookController {
                 schema = @Schema(type = "string", format = "binary")
             )
         ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "206", 
+            description = "Trả về đoạn byte theo header Range"
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "304", 
+            description = "PDF không đổi so với ETag (If-None-Match) / If-Modified-Since của client"
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "416", 
+            description = "Range nằm ngoài kích thước file"
+        ),
         @io.swagger.v3.oas.annotations.responses.ApiResponse(
             responseCode = "403", 
             description = "Không có quyền - Chỉ VIP"
@@ -348,35 +692,105 @@ public class BookController {
             description = "Cần đăng nhập"
         )
     })
-    public ResponseEntity<byte[]> downloadPDF(
+    public ResponseEntity<StreamingResponseBody> downloadPDF(
             @Parameter(description = "ID của sách", required = true, example = "1")
             @PathVariable Long id,
+            @Parameter(description = "Đoạn byte cần tải, ví dụ bytes=1048576- để tải tiếp")
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @Parameter(description = "ETag hoặc Last-Modified của lần tải trước; file đã đổi thì trả lại toàn bộ")
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
             @AuthenticationPrincipal User currentUser,
-            HttpServletRequest request) {
+            HttpServletRequest request,
+            WebRequest webRequest) {
         
         try {
+            // If-None-Match / If-Modified-Since: 304 trước khi giải mã hay ghi log tải về
+            ResourceVersion version = bookService.getPdfVersion(id);
+            if (webRequest.checkNotModified(version.eTag(), version.lastModified())) {
+                return null;
+            }
+            
             String userIp = getClientIpAddress(request);
             String userAgent = request.getHeader("User-Agent");
             
-            byte[] pdfData = bookService.downloadPDF(id, currentUser, userIp, userAgent);
+            // Chỉ hỗ trợ một đoạn; nhiều đoạn hoặc header sai cú pháp thì trả toàn bộ file
+            HttpRange range = null;
+            if (rangeHeader != null) {
+                try {
+                    List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                    if (ranges.size() == 1) {
+                        range = ranges.get(0);
+                    }
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+            
+            PdfContent pdf = bookService.downloadPDF(id, currentUser);
             
             // Lấy thông tin sách để đặt tên file
-            Optional<Book> bookOpt = bookService.getBook(id);
+            Optional<BookDescriptor> bookOpt = bookService.getBookDescriptor(id);
             String filename = "book.pdf";
             if (bookOpt.isPresent()) {
-                Book book = bookOpt.get();
+                BookDescriptor book = bookOpt.get();
                 filename = book.getTitle().replaceAll("[^a-zA-Z0-9]", "_") + ".pdf";
             }
             
+            String etag = version.eTag();
+            long length = pdf.getLength();
+            
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_PDF);
-            headers.setContentLength(pdfData.length);
             headers.setContentDispositionFormData("attachment", filename);
+            headers.setETag(etag);
+            if (version.lastModified() >= 0) {
+                headers.setLastModified(version.lastModified());
+            }
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
             
-            return ResponseEntity.ok()
+            // If-Range không khớp (file đã đổi) thì bỏ qua Range và trả toàn bộ file
+            if (range != null && ifRange != null && !ifRangeMatches(ifRange, etag, version.lastModified())) {
+                range = null;
+            }
+            
+            if (range == null) {
+                bookService.logDownload(id, currentUser, userIp, userAgent);
+                headers.setContentLength(length);
+                // Giải mã từng segment thẳng ra response
+                StreamingResponseBody body = pdf::writeTo;
+                return ResponseEntity.ok()
+                        .headers(headers)
+                        .body(body);
+            }
+            
+            long start;
+            long end;
+            try {
+                start = range.getRangeStart(length);
+                end = range.getRangeEnd(length);
+                // HttpRange không kiểm tra điểm bắt đầu nằm ngoài file (vd. bytes=1000- với file 1000 byte)
+                if (start >= length || start > end) {
+                    throw new IllegalArgumentException("Range not satisfiable: " + rangeHeader);
+                }
+            } catch (IllegalArgumentException e) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .headers(headers)
+                        .build();
+            }
+            
+            // Request tiếp nối (không bắt đầu từ byte 0) không ghi thêm lượt tải
+            if (start == 0) {
+                bookService.logDownload(id, currentUser, userIp, userAgent);
+            }
+            
+            headers.setContentLength(end - start + 1);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            // Chỉ giải mã các segment chứa đoạn được yêu cầu
+            StreamingResponseBody body = out -> pdf.writeRange(out, start, end);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
                     .headers(headers)
-                    .body(pdfData);
-                    
+                    .body(body);
+        
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
@@ -404,6 +818,26 @@ public class BookController {
         }
     }
     
+    /**
+     * If-Range theo RFC 9110 (13.1.5): entity-tag phải khớp kiểu strong (ETag yếu W/... không bao giờ khớp),
+     * HTTP-date phải bằng đúng Last-Modified (độ chính xác giây); giá trị không hợp lệ coi như không khớp
+     */
+    static boolean ifRangeMatches(String ifRange, String eTag, long lastModified) {
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(eTag);
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date == lastModified / 1000 * 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+    
     /**
      * Lấy IP address của client
      */
@@ -0,0 +1,88 @@
+package com.cmc.controller;
+
+import com.cmc.entity.ImageTier;
+import com.cmc.service.BookService;
+import com.cmc.service.PageImage;
+import com.cmc.service.PageUrlService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/public/pages")
+@RequiredArgsConstructor
+@Tag(name = "🔗 Signed Pages", description = "Ảnh trang qua URL đã ký, cấp bởi POST /books/{id}/session")
+public class PublicPageController {
+    
+    private final BookService bookService;
+    private final PageUrlService pageUrlService;
+    
+    @GetMapping("/{bookId}/{pageNumber}")
+    @Operation(
+        summary = "🖼️ Ảnh trang qua URL đã ký",
+        description = "Không cần JWT: chỉ kiểm tra chữ ký HMAC và hạn dùng của URL. " +
+                      "Ảnh có watermark của người được cấp URL; cache được ở reverse proxy tới khi URL hết hạn."
+    )
+    @ApiResponses(value = {
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "200", 
+            description = "Trả về hình ảnh trang sách có watermark",
+            content = @Content(
+                mediaType = "image/jpeg",
+                schema = @Schema(type = "string", format = "binary")
+            )
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "403", 
+            description = "Chữ ký sai hoặc URL đã hết hạn"
+        ),
+        @io.swagger.v3.oas.annotations.responses.ApiResponse(
+            responseCode = "400", 
+            description = "Lỗi khi lấy trang sách"
+        )
+    })
+    public ResponseEntity<PageImage> getSignedPage(
+            @Parameter(description = "ID của sách", required = true, example = "1")
+            @PathVariable Long bookId,
+            @Parameter(description = "Số trang (bắt đầu từ 1)", required = true, example = "1")
+            @PathVariable int pageNumber,
+            @Parameter(description = "Kích thước ảnh", required = true, example = "MEDIUM")
+            @RequestParam ImageTier tier,
+            @Parameter(description = "ID người được cấp URL", required = true)
+            @RequestParam("u") Long userId,
+            @Parameter(description = "Thời điểm hết hạn (epoch giây)", required = true)
+            @RequestParam("exp") long expires,
+            @Parameter(description = "Chữ ký HMAC-SHA256 (base64url)", required = true)
+            @RequestParam("sig") String signature) {
+        
+        if (!pageUrlService.verify(userId, bookId, pageNumber, tier, expires, signature)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        
+        try {
+            PageImage image = bookService.getSignedPageImage(bookId, pageNumber, tier, userId);
+            
+            // Nội dung cố định trong thời hạn URL: proxy cache được tới khi URL hết hạn
+            long remaining = Math.max(0, expires - System.currentTimeMillis() / 1000);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .contentLength(image.getLength())
+                    .cacheControl(CacheControl.maxAge(Duration.ofSeconds(remaining)).cachePublic())
+                    .body(image);
+                    
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.cmc.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Manifest của sách: kích thước và phiên bản từng trang, tạo lúc upload và lưu cùng thư mục ảnh")
+public class BookManifest {
+    
+    public static final int CURRENT_VERSION = 2;
+    
+    @Schema(description = "Phiên bản định dạng manifest", example = "2")
+    private int version = CURRENT_VERSION;
+    
+    @Schema(description = "Tổng số trang", example = "600")
+    private int pageCount;
+    
+    @Schema(description = "Các tier ảnh có thể yêu cầu qua ?tier=")
+    private List<Tier> tiers = new ArrayList<>();
+    
+    @Schema(description = "Thông tin từng trang theo thứ tự")
+    private List<PageInfo> pages = new ArrayList<>();
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Tier {
+        
+        @Schema(description = "Tên tier", example = "MEDIUM")
+        private String name;
+        
+        @Schema(description = "Chiều rộng tối đa (px), trang có ảnh gốc hẹp hơn giữ chiều rộng gốc; không có với FULL (bằng chiều rộng ảnh gốc); chiều cao giữ tỉ lệ trang", example = "960")
+        private Integer width;
+    }
+    
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class PageInfo {
+        
+        @Schema(description = "Số trang (bắt đầu từ 1)", example = "1")
+        private int page;
+        
+        @Schema(description = "Chiều rộng ảnh gốc (px)", example = "1275")
+        private Integer width;
+        
+        @Schema(description = "Chiều cao ảnh gốc (px)", example = "1650")
+        private Integer height;
+        
+        @Schema(description = "Dung lượng ảnh gốc chưa watermark (bytes), không có nếu trang chưa được render", example = "245113")
+        private Long bytes;
+        
+        @Schema(description = "Phiên bản trang theo nội dung sách; ETag của ảnh trang là \"{etag}-{tier viết thường}-{userId}\"",
+                example = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08-12")
+        private String etag;
+    }
+}
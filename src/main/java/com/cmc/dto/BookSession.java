@@ -0,0 +1,38 @@
+package com.cmc.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@Schema(description = "Phiên đọc sách: URL ảnh trang đã ký, dùng trực tiếp không cần header Authorization")
+public class BookSession {
+    
+    @Schema(description = "ID sách", example = "1")
+    private Long bookId;
+    
+    private String title;
+    
+    @Schema(description = "Tổng số trang của sách", example = "600")
+    private int totalPages;
+    
+    @Schema(description = "Kích thước ảnh của các URL", example = "MEDIUM")
+    private String tier;
+    
+    @Schema(description = "Trang đầu có URL", example = "1")
+    private int fromPage;
+    
+    @Schema(description = "Trang cuối có URL", example = "600")
+    private int toPage;
+    
+    @Schema(description = "Thời điểm các URL hết hạn, sau đó cần tạo phiên mới")
+    private LocalDateTime expiresAt;
+    
+    @Schema(description = "URL ảnh trang fromPage..toPage theo thứ tự")
+    private List<String> pageUrls = new ArrayList<>();
+}
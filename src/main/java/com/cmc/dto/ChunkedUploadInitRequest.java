@@ -0,0 +1,31 @@
+package com.cmc.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Schema(description = "Khởi tạo upload theo từng chunk")
+public class ChunkedUploadInitRequest {
+    
+    @Schema(description = "Tên file PDF", example = "java-programming.pdf", required = true)
+    private String filename;
+    
+    @Schema(description = "Tổng kích thước file (bytes)", example = "314572800", required = true)
+    private Long totalSize;
+    
+    @Schema(description = "SHA-256 (hex) của cả file, kiểm tra khi complete", example = "9f86d081884c7d65...")
+    private String sha256;
+    
+    @Schema(description = "Tiêu đề sách", example = "Java Programming", required = true)
+    private String title;
+    
+    @Schema(description = "Tác giả", example = "Oracle", required = true)
+    private String author;
+    
+    @Schema(description = "Mô tả sách", example = "Complete guide to Java programming")
+    private String description;
+}
@@ -0,0 +1,75 @@
+package com.cmc.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+@Data
+@NoArgsConstructor
+@Schema(description = "Trạng thái upload theo chunk, dùng để resume khi bị gián đoạn")
+public class ChunkedUploadSession {
+    
+    @Schema(description = "ID phiên upload", example = "3f2b8c1e-6a0d-4e59-9b1a-0c8d2e7f4a11")
+    private String uploadId;
+    
+    private String filename;
+    
+    private String sha256;
+    
+    private String title;
+    
+    private String author;
+    
+    private String description;
+    
+    @Schema(description = "Tổng kích thước file (bytes)", example = "314572800")
+    private long totalSize;
+    
+    @Schema(description = "Kích thước mỗi chunk (bytes), chunk cuối có thể nhỏ hơn", example = "8388608")
+    private long chunkSize;
+    
+    @Schema(description = "Tổng số chunk", example = "38")
+    private int totalChunks;
+    
+    @Schema(description = "Các chunk đã nhận (bắt đầu từ 0)")
+    private ConcurrentSkipListSet<Integer> receivedChunks = new ConcurrentSkipListSet<>();
+    
+    @Schema(description = "ID admin khởi tạo upload")
+    private Long uploadedById;
+    
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    private LocalDateTime updatedAt = LocalDateTime.now();
+    
+    /**
+     * Kích thước chunk thứ index
+     */
+    public long chunkLength(int index) {
+        long offset = index * chunkSize;
+        return Math.min(chunkSize, totalSize - offset);
+    }
+    
+    @Schema(description = "Các chunk còn thiếu")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public List<Integer> getMissingChunks() {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < totalChunks; i++) {
+            if (!receivedChunks.contains(i)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+    
+    @JsonIgnore
+    public boolean isComplete() {
+        return receivedChunks.size() == totalChunks;
+    }
+}
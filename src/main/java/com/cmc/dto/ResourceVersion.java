@@ -0,0 +1,10 @@
+package com.cmc.dto;
+
+/**
+ * Validator cho conditional GET (If-None-Match / If-Modified-Since)
+ *
+ * @param eTag         ETag mạnh, đã có dấu nháy kép
+ * @param lastModified thời gian sửa (epoch millis), -1 nếu không có
+ */
+public record ResourceVersion(String eTag, long lastModified) {
+}
@@ -1,5 +1,7 @@
 package com.cmc.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -47,6 +49,13 @@ public class Book {
     @Column(name = "file_size")
     private Long fileSize;
     
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+    
+    // BookContent dùng chung (null với sách upload trước khi có dedup)
+    @Column(name = "content_id")
+    private Long contentId;
+    
     @Column(name = "is_active")
     private Boolean isActive = true;
     
@@ -58,7 +67,17 @@ public class Book {
     
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "uploaded_by", nullable = false)
+    @JsonIgnore
     private User uploadedBy;
+    
+    /**
+     * API chỉ trả username người upload, không trả entity User (password, quyền).
+     * Query trả Book ra API phải fetch kèm uploadedBy vì không còn open-in-view.
+     */
+    @JsonProperty("uploadedBy")
+    public String getUploadedByUsername() {
+        return uploadedBy != null ? uploadedBy.getUsername() : null;
+    }
 
     @PreUpdate
     public void preUpdate() {
@@ -0,0 +1,48 @@
+package com.cmc.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Nội dung sách đã xử lý (file mã hóa, key, metadata, ảnh), dùng chung giữa các Book
+ * có cùng SHA-256. Files chỉ bị xóa khi referenceCount về 0.
+ */
+@Entity
+@Table(name = "book_contents")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookContent {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "content_hash", nullable = false, unique = true, length = 64)
+    private String contentHash;
+    
+    @Column(name = "encrypted_filename", nullable = false)
+    private String encryptedFilename;
+    
+    @Column(name = "key_filename", nullable = false)
+    private String keyFilename;
+    
+    @Column(name = "metadata_filename", nullable = false)
+    private String metadataFilename;
+    
+    @Column(name = "images_folder", nullable = false)
+    private String imagesFolder;
+    
+    @Column(name = "total_pages")
+    private Integer totalPages;
+    
+    @Column(name = "reference_count", nullable = false)
+    private Integer referenceCount = 1;
+    
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -38,4 +38,11 @@ public class DownloadLog {
     @Enumerated(EnumType.STRING)
     @Column(name = "download_type")
     private DownloadType downloadType;
+    
+    // Khoảng trang đã xem (IMAGE_VIEW), một lượt xem nhiều trang chỉ ghi một log
+    @Column(name = "page_from")
+    private Integer pageFrom;
+    
+    @Column(name = "page_to")
+    private Integer pageTo;
 }
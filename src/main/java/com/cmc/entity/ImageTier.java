@@ -0,0 +1,60 @@
+package com.cmc.entity;
+
+public enum ImageTier {
+    THUMBNAIL("Thumbnail", 200),
+    SMALL("Small", 480),
+    MEDIUM("Medium", 960),
+    FULL("Full", 0); // Ảnh gốc 150 DPI
+    
+    private final String displayName;
+    private final int width;
+    
+    ImageTier(String displayName, int width) {
+        this.displayName = displayName;
+        this.width = width;
+    }
+    
+    public String getDisplayName() {
+        return displayName;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public boolean isFull() {
+        return this == FULL;
+    }
+    
+    /**
+     * Tier nhỏ nhất có chiều rộng >= width yêu cầu
+     */
+    public static ImageTier forWidth(int width) {
+        for (ImageTier tier : values()) {
+            if (!tier.isFull() && width <= tier.width) {
+                return tier;
+            }
+        }
+        return FULL;
+    }
+    
+    /**
+     * Chọn tier từ tham số request: tên tier ưu tiên, sau đó tới width, mặc định FULL
+     */
+    public static ImageTier resolve(String tier, Integer width) {
+        if (tier != null && !tier.isBlank()) {
+            try {
+                return valueOf(tier.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Invalid image tier: " + tier);
+            }
+        }
+        if (width != null) {
+            if (width <= 0) {
+                throw new RuntimeException("Invalid image width: " + width);
+            }
+            return forWidth(width);
+        }
+        return FULL;
+    }
+}
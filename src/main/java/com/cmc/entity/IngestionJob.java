@@ -0,0 +1,56 @@
+package com.cmc.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "ingestion_jobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionJob {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private IngestionStatus status = IngestionStatus.QUEUED;
+    
+    @Column(name = "raw_filename")
+    private String rawFilename;
+    
+    @Column(name = "total_pages")
+    private Integer totalPages;
+    
+    @Column(name = "pages_rendered")
+    private Integer pagesRendered = 0;
+    
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+    
+    @Column(name = "stage_started_at")
+    private LocalDateTime stageStartedAt;
+    
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt = LocalDateTime.now();
+    
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,24 @@
+package com.cmc.entity;
+
+public enum IngestionStatus {
+    QUEUED("Queued"),
+    VALIDATING("Validating"),
+    ENCRYPTING("Encrypting"),
+    RENDERING("Rendering"),
+    COMPLETED("Completed"),
+    FAILED("Failed");
+    
+    private final String displayName;
+    
+    IngestionStatus(String displayName) {
+        this.displayName = displayName;
+    }
+    
+    public String getDisplayName() {
+        return displayName;
+    }
+    
+    public boolean isFinished() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
@@ -0,0 +1,42 @@
+package com.cmc.repository;
+
+import com.cmc.entity.BookContent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+@Repository
+public interface BookContentRepository extends JpaRepository<BookContent, Long> {
+    
+    Optional<BookContent> findByContentHash(String contentHash);
+    
+    Optional<BookContent> findByEncryptedFilename(String encryptedFilename);
+    
+    /**
+     * Tăng reference count, chỉ thành công khi content còn được dùng (count > 0)
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE BookContent c SET c.referenceCount = c.referenceCount + 1 " +
+           "WHERE c.id = :id AND c.referenceCount > 0")
+    int acquire(@Param("id") Long id);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE BookContent c SET c.referenceCount = c.referenceCount - 1 " +
+           "WHERE c.id = :id AND c.referenceCount > 0")
+    int release(@Param("id") Long id);
+    
+    /**
+     * Xóa content không còn book nào tham chiếu, trả về 1 nếu đã xóa
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM BookContent c WHERE c.id = :id AND c.referenceCount = 0")
+    int deleteIfUnreferenced(@Param("id") Long id);
+}
@@ -4,6 +4,7 @@ import com.cmc.entity.Book;
 import com.cmc.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -16,10 +17,16 @@ import java.util.Optional;
 public interface BookRepository extends JpaRepository<Book, Long> {
     
     List<Book> findByIsActiveTrueOrderByCreatedAtDesc();
+    
+    @EntityGraph(attributePaths = "uploadedBy")
     Page<Book> findByIsActiveTrueOrderByCreatedAtDesc(Pageable pageable);
     
     Optional<Book> findByIdAndIsActiveTrue(Long id);
     
+    @EntityGraph(attributePaths = "uploadedBy")
+    Optional<Book> findWithUploaderById(Long id);
+    
+    @EntityGraph(attributePaths = "uploadedBy")
     @Query("SELECT b FROM Book b WHERE b.isActive = true AND " +
            "(LOWER(b.title) LIKE LOWER(CONCAT('%', :keyword, '%')) OR " +
            "LOWER(b.author) LIKE LOWER(CONCAT('%', :keyword, '%')))")
@@ -27,6 +34,8 @@ public interface BookRepository extends JpaRepository<Book, Long> {
     
     List<Book> findByUploadedByAndIsActiveTrue(User uploadedBy);
     
+    List<Book> findByEncryptedFilenameEndingWith(String suffix);
+    
     @Query("SELECT COUNT(b) FROM Book b WHERE b.isActive = true")
     long countActiveBooks();
 }
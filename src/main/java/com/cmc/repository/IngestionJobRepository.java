@@ -0,0 +1,26 @@
+package com.cmc.repository;
+
+import com.cmc.entity.IngestionJob;
+import com.cmc.entity.IngestionStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+    
+    List<IngestionJob> findByStatusIn(Collection<IngestionStatus> statuses);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.pagesRendered = :pages, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.pagesRendered < :pages")
+    int updatePagesRendered(@Param("id") Long id, @Param("pages") int pages, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,141 @@
+package com.cmc.service;
+
+import com.cmc.service.PDFProcessingService.PageSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File .book: một file duy nhất cho mỗi sách, thay cho bộ ba .pdf.enc + .key.enc + _meta.json.
+ *
+ * Header (big-endian), dữ liệu bắt đầu tại headerLength (căn theo 4KB):
+ * magic "OLBC" (4) | version (2) | flags (2) | headerLength (4) | segmentSize (4) | plaintextLength (8) |
+ * noncePrefix (8) | wrappedKeyLength (2) | wrappedKey (AES key mã hóa bằng RSA) |
+ * pageCount (4) | pageCount × (width, height) float theo point
+ *
+ * Sau header là các segment AES-GCM như EncryptionService.SegmentedHeader mô tả.
+ */
+public final class BookContainer {
+    
+    public static final String EXTENSION = ".book";
+    
+    private static final int MAGIC = 0x4F4C4243; // "OLBC"
+    private static final short VERSION = 1;
+    private static final int FIXED_HEADER_LENGTH = 4 + 2 + 2 + 4 + 4 + 8 + EncryptionService.NONCE_PREFIX_LENGTH + 2;
+    private static final int DATA_ALIGNMENT = 4096;
+    // Một lần đọc đủ header cho sách tới ~2000 trang
+    private static final int INITIAL_READ_SIZE = 16 * 1024;
+    
+    private final byte[] wrappedKey;
+    private final EncryptionService.SegmentedHeader segments;
+    private final List<PageSize> pageIndex;
+    
+    public BookContainer(byte[] wrappedKey, EncryptionService.SegmentedHeader segments, List<PageSize> pageIndex) {
+        if (segments.dataOffset() != headerLength(wrappedKey.length, pageIndex.size())) {
+            throw new IllegalArgumentException("Segment data offset does not match container header length");
+        }
+        this.wrappedKey = wrappedKey;
+        this.segments = segments;
+        this.pageIndex = List.copyOf(pageIndex);
+    }
+    
+    public static boolean isContainer(String filename) {
+        return filename != null && filename.endsWith(EXTENSION);
+    }
+    
+    /**
+     * Độ dài header (cũng là offset của segment đầu tiên)
+     */
+    public static int headerLength(int wrappedKeyLength, int pageCount) {
+        int length = FIXED_HEADER_LENGTH + wrappedKeyLength + 4 + pageCount * 8;
+        return (length + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+    
+    /**
+     * Đọc header bằng một lần đọc FileChannel tại vị trí 0 (thêm một lần với page index rất lớn)
+     */
+    public static BookContainer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = readAt(channel, (int) Math.min(INITIAL_READ_SIZE, channel.size()));
+            if (buffer.remaining() < FIXED_HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a book container: " + path.getFileName());
+            }
+            short version = buffer.getShort();
+            if (version > VERSION) {
+                throw new IOException("Unsupported book container version " + version);
+            }
+            buffer.getShort(); // flags, chưa dùng
+            int headerLength = buffer.getInt();
+            if (headerLength > buffer.limit()) {
+                buffer = readAt(channel, headerLength);
+                buffer.position(4 + 2 + 2 + 4);
+            }
+            
+            int segmentSize = buffer.getInt();
+            long plaintextLength = buffer.getLong();
+            byte[] noncePrefix = new byte[EncryptionService.NONCE_PREFIX_LENGTH];
+            buffer.get(noncePrefix);
+            byte[] wrappedKey = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(wrappedKey);
+            
+            int pageCount = buffer.getInt();
+            List<PageSize> pageIndex = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                pageIndex.add(new PageSize(buffer.getFloat(), buffer.getFloat()));
+            }
+            
+            EncryptionService.SegmentedHeader segments = new EncryptionService.SegmentedHeader(
+                    segmentSize, plaintextLength, noncePrefix, headerLength);
+            return new BookContainer(wrappedKey, segments, pageIndex);
+        }
+    }
+    
+    private static ByteBuffer readAt(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+    
+    /**
+     * Header đã padding tới offset của segment đầu tiên
+     */
+    public ByteBuffer encodeHeader() {
+        int headerLength = (int) segments.dataOffset();
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength)
+                .putInt(MAGIC)
+                .putShort(VERSION)
+                .putShort((short) 0)
+                .putInt(headerLength)
+                .putInt(segments.segmentSize())
+                .putLong(segments.plaintextLength())
+                .put(segments.noncePrefix())
+                .putShort((short) wrappedKey.length)
+                .put(wrappedKey)
+                .putInt(pageIndex.size());
+        for (PageSize page : pageIndex) {
+            buffer.putFloat(page.getWidth()).putFloat(page.getHeight());
+        }
+        return buffer.position(0);
+    }
+    
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+    
+    public EncryptionService.SegmentedHeader getSegments() {
+        return segments;
+    }
+    
+    public List<PageSize> getPageIndex() {
+        return pageIndex;
+    }
+}
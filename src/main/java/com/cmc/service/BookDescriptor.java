@@ -0,0 +1,55 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import lombok.Value;
+
+/**
+ * Thông tin bất biến của sách dùng khi phục vụ trang và PDF (số trang, đường dẫn lưu trữ, tiêu đề).
+ * Không phải entity nên cache và dùng chung giữa các thread được; lấy qua BookDescriptorCache.
+ */
+@Value
+public class BookDescriptor {
+    
+    Long id;
+    String title;
+    boolean active;
+    int totalPages;
+    String imagesFolder;
+    String encryptedFilename;
+    String keyFilename;
+    String metadataFilename;
+    String contentHash;
+    Long fileSize;
+    
+    public static BookDescriptor of(Book book) {
+        return new BookDescriptor(
+                book.getId(),
+                book.getTitle(),
+                Boolean.TRUE.equals(book.getIsActive()),
+                book.getTotalPages() != null ? book.getTotalPages() : 0,
+                book.getImagesFolder(),
+                book.getEncryptedFilename(),
+                book.getKeyFilename(),
+                book.getMetadataFilename(),
+                book.getContentHash(),
+                book.getFileSize());
+    }
+    
+    /**
+     * Phiên bản nội dung sách: SHA-256 của PDF, sách cũ chưa có hash thì theo id và kích thước file
+     */
+    public String getContentVersion() {
+        return contentHash != null ? contentHash : "book" + id + "-" + fileSize;
+    }
+    
+    /**
+     * Phiên bản một trang (chưa gồm tier và người xem), dùng cho etag trong manifest và ETag của ảnh trang
+     */
+    public String pageVersion(int pageNumber) {
+        return pageVersion(getContentVersion(), pageNumber);
+    }
+    
+    public static String pageVersion(String contentVersion, int pageNumber) {
+        return contentVersion + "-" + pageNumber;
+    }
+}
@@ -0,0 +1,52 @@
+package com.cmc.service;
+
+import com.cmc.repository.BookRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Cache read-through BookDescriptor của sách đang active theo book id.
+ * Đường xem trang / tải PDF không còn truy vấn bảng books khi cache đã có sách;
+ * entry bị xóa khi sách được kích hoạt, xóa hoặc đổi file lưu trữ (TTL chỉ là lưới an toàn
+ * cho thay đổi ngoài ứng dụng). Sách không tồn tại hoặc chưa active không được cache.
+ */
+@Service
+public class BookDescriptorCache {
+    
+    private final BookRepository bookRepository;
+    private final Cache<Long, BookDescriptor> descriptors;
+    
+    public BookDescriptorCache(BookRepository bookRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${books.descriptor-cache.max-size:10000}") long maxSize,
+                               @Value("${books.descriptor-cache.ttl:1h}") Duration ttl) {
+        this.bookRepository = bookRepository;
+        this.descriptors = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, descriptors, "book.descriptors");
+    }
+    
+    /**
+     * Sách active theo id, đọc từ DB khi chưa có trong cache
+     */
+    public Optional<BookDescriptor> get(Long bookId) {
+        // Loader trả null (không có sách) thì không cache
+        return Optional.ofNullable(descriptors.get(bookId, id -> bookRepository.findByIdAndIsActiveTrue(id)
+                .map(BookDescriptor::of)
+                .orElse(null)));
+    }
+    
+    public void invalidate(Long bookId) {
+        descriptors.invalidate(bookId);
+    }
+}
@@ -0,0 +1,322 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import com.cmc.entity.BookContent;
+import com.cmc.entity.IngestionJob;
+import com.cmc.entity.IngestionStatus;
+import com.cmc.repository.BookContentRepository;
+import com.cmc.repository.BookRepository;
+import com.cmc.repository.IngestionJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Xử lý sách upload ở background: validate, mã hóa, render ảnh.
+ * Book chỉ được kích hoạt (hiện trong danh sách) khi xử lý xong.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BookIngestionService {
+    
+    private static final EnumSet<IngestionStatus> UNFINISHED_STATUSES = EnumSet.of(
+            IngestionStatus.QUEUED, IngestionStatus.VALIDATING,
+            IngestionStatus.ENCRYPTING, IngestionStatus.RENDERING);
+    
+    private final BookRepository bookRepository;
+    private final IngestionJobRepository ingestionJobRepository;
+    private final BookContentRepository bookContentRepository;
+    private final EncryptionService encryptionService;
+    private final PDFProcessingService pdfProcessingService;
+    private final BookStorageService bookStorageService;
+    private final BookManifestService bookManifestService;
+    private final BookDescriptorCache bookDescriptorCache;
+    private final ThreadPoolTaskExecutor ingestionExecutor;
+    
+    /**
+     * Lưu book vừa upload (chưa active) và tạo job, chạy sau khi transaction commit.
+     * File gốc đã được ghi sẵn nên transaction chỉ gồm hai lệnh insert.
+     */
+    @Transactional
+    public IngestionJob submit(Book book, String rawFilename) {
+        bookRepository.save(book);
+        
+        IngestionJob job = new IngestionJob();
+        job.setBookId(book.getId());
+        job.setRawFilename(rawFilename);
+        job.setStatus(IngestionStatus.QUEUED);
+        job.setStageStartedAt(LocalDateTime.now());
+        job = ingestionJobRepository.save(job);
+        
+        Long jobId = job.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(jobId);
+                }
+            });
+        } else {
+            dispatch(jobId);
+        }
+        return job;
+    }
+    
+    /**
+     * Lấy trạng thái job
+     */
+    public Optional<IngestionJob> getJob(Long jobId) {
+        return ingestionJobRepository.findById(jobId);
+    }
+    
+    /**
+     * Chạy lại các job bị gián đoạn (ví dụ khi server restart)
+     */
+    public int resumeInterruptedJobs() {
+        List<IngestionJob> jobs = ingestionJobRepository.findByStatusIn(UNFINISHED_STATUSES);
+        for (IngestionJob job : jobs) {
+            job.setStatus(IngestionStatus.QUEUED);
+            job.setPagesRendered(0);
+            job.setStageStartedAt(LocalDateTime.now());
+            ingestionJobRepository.save(job);
+            dispatch(job.getId());
+        }
+        return jobs.size();
+    }
+    
+    private void dispatch(Long jobId) {
+        try {
+            ingestionExecutor.execute(() -> process(jobId));
+        } catch (TaskRejectedException e) {
+            log.warn("Ingestion queue is full, rejecting job {}", jobId);
+            ingestionJobRepository.findById(jobId).ifPresent(job -> fail(job, "Ingestion queue is full"));
+        }
+    }
+    
+    /**
+     * Pipeline xử lý một job
+     */
+    private void process(Long jobId) {
+        IngestionJob job = ingestionJobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus().isFinished()) {
+            return;
+        }
+        
+        Book book = bookRepository.findWithUploaderById(job.getBookId()).orElse(null);
+        if (book == null) {
+            fail(job, "Book not found");
+            return;
+        }
+        
+        String bookId = "book" + book.getId();
+        // Content job này đã giữ reference: của riêng job (registerContent) hoặc content dùng chung (dedup)
+        Long registeredContentId = null;
+        Long sharedContentId = null;
+        
+        try {
+            Path rawFile = bookStorageService.rawUploadPath(job.getRawFilename());
+            if (!Files.exists(rawFile)) {
+                throw new IllegalStateException("Uploaded file is missing");
+            }
+            
+            // 0. Cùng nội dung với sách đã xử lý: dùng lại files, bỏ qua mã hóa và render
+            BookContent shared = acquireExistingContent(book);
+            if (shared != null) {
+                sharedContentId = shared.getId();
+                linkContent(book, shared);
+                
+                job.setTotalPages(shared.getTotalPages());
+                job.setPagesRendered(shared.getTotalPages());
+                job.setCompletedAt(LocalDateTime.now());
+                advance(job, IngestionStatus.COMPLETED);
+                
+                bookStorageService.deleteQuietly(rawFile);
+                log.info("Ingestion job {} reused content {} for {}", job.getId(), sharedContentId, bookId);
+                return;
+            }
+            
+            // 1. Validate + render ảnh gốc, chỉ parse PDF một lần
+            job = advance(job, IngestionStatus.VALIDATING);
+            Long id = job.getId();
+            PDFProcessingService.IngestionResult ingestionResult = pdfProcessingService.ingestPDF(
+                    rawFile, bookId, new PDFProcessingService.IngestionListener() {
+                        @Override
+                        public void onValidated(int pageCount) {
+                            ingestionJobRepository.findById(id).ifPresent(current -> {
+                                current.setTotalPages(pageCount);
+                                advance(current, IngestionStatus.RENDERING);
+                            });
+                        }
+                        
+                        @Override
+                        public void onPageRendered(int renderedPages) {
+                            ingestionJobRepository.updatePagesRendered(id, renderedPages, LocalDateTime.now());
+                        }
+                    });
+            if (!ingestionResult.isValid()) {
+                throw new IllegalStateException("Invalid PDF file");
+            }
+            int totalPages = ingestionResult.getPageCount();
+            
+            // 2. Mã hóa streaming từ file tạm vào container .book (key đã bọc RSA + page index + segment)
+            job = ingestionJobRepository.findById(id).orElse(job);
+            job.setPagesRendered(totalPages);
+            job = advance(job, IngestionStatus.ENCRYPTING);
+            
+            SecretKey aesKey = encryptionService.generateAESKey();
+            String containerFilename = bookId + BookContainer.EXTENSION;
+            bookStorageService.writeContainer(rawFile, bookStorageService.booksDir().resolve(containerFilename),
+                    aesKey, ingestionResult.getPageSizes());
+            
+            // 3. Manifest cho client: kích thước, dung lượng, phiên bản từng trang
+            String imagesFolder = bookId + "_images";
+            try {
+                bookManifestService.write(imagesFolder, totalPages, BookDescriptor.of(book).getContentVersion(),
+                        ingestionResult.getPageSizes());
+            } catch (IOException e) {
+                // Không chặn kích hoạt sách, manifest được tạo lại khi có request đầu tiên
+                log.warn("Failed to write manifest for {}: {}", bookId, e.getMessage());
+            }
+            
+            // 4. Kích hoạt book: key và metadata nằm trong chính container
+            book.setEncryptedFilename(containerFilename);
+            book.setKeyFilename(containerFilename);
+            book.setMetadataFilename(containerFilename);
+            book.setImagesFolder(imagesFolder);
+            book.setTotalPages(totalPages);
+            registeredContentId = registerContent(book);
+            book.setContentId(registeredContentId);
+            book.setIsActive(true);
+            book.setUpdatedAt(LocalDateTime.now());
+            bookRepository.save(book);
+            bookDescriptorCache.invalidate(book.getId());
+            
+            job.setCompletedAt(LocalDateTime.now());
+            advance(job, IngestionStatus.COMPLETED);
+            
+            bookStorageService.deleteQuietly(rawFile);
+            log.info("Ingestion job {} completed for {} ({} pages)", id, bookId, totalPages);
+        
+        } catch (Exception e) {
+            log.error("Ingestion job {} failed for {}: {}", jobId, bookId, e.getMessage(), e);
+            // Lỗi có thể xảy ra sau khi book đã được kích hoạt (vd. lúc cập nhật job)
+            deactivate(book);
+            if (sharedContentId != null) {
+                // Content của sách khác: chỉ trả lại reference vừa lấy, không xóa
+                bookStorageService.releaseContent(sharedContentId);
+            }
+            if (registeredContentId != null) {
+                // Content do job này đăng ký; files chỉ bị xóa khi không có upload trùng nội dung nào vừa dùng lại
+                bookStorageService.releaseContent(registeredContentId);
+            } else {
+                bookStorageService.deleteBookFiles(bookId);
+            }
+            fail(job, e.getMessage());
+        }
+    }
+    
+    /**
+     * Lấy thêm một reference tới content đã có cùng SHA-256, null nếu không có content để dùng lại
+     */
+    private BookContent acquireExistingContent(Book book) {
+        if (book.getContentHash() == null) {
+            return null;
+        }
+        Optional<BookContent> existing = bookContentRepository.findByContentHash(book.getContentHash());
+        if (existing.isEmpty() || bookContentRepository.acquire(existing.get().getId()) == 0) {
+            return null;
+        }
+        return existing.get();
+    }
+    
+    /**
+     * Gắn book vào content dùng chung và kích hoạt book
+     */
+    private void linkContent(Book book, BookContent content) {
+        book.setEncryptedFilename(content.getEncryptedFilename());
+        book.setKeyFilename(content.getKeyFilename());
+        book.setMetadataFilename(content.getMetadataFilename());
+        book.setImagesFolder(content.getImagesFolder());
+        book.setTotalPages(content.getTotalPages());
+        book.setContentId(content.getId());
+        book.setIsActive(true);
+        book.setUpdatedAt(LocalDateTime.now());
+        bookRepository.save(book);
+        bookDescriptorCache.invalidate(book.getId());
+    }
+    
+    /**
+     * Đưa book về trạng thái chưa kích hoạt sau khi job lỗi
+     */
+    private void deactivate(Book book) {
+        if (!Boolean.TRUE.equals(book.getIsActive())) {
+            return;
+        }
+        book.setIsActive(false);
+        book.setContentId(null);
+        book.setUpdatedAt(LocalDateTime.now());
+        try {
+            bookRepository.save(book);
+        } catch (RuntimeException e) {
+            log.warn("Failed to deactivate book{}: {}", book.getId(), e.getMessage());
+        }
+        bookDescriptorCache.invalidate(book.getId());
+    }
+    
+    /**
+     * Đăng ký files vừa xử lý làm content dùng chung.
+     * Nếu một upload cùng nội dung đăng ký trước, book giữ files riêng (không dùng chung).
+     */
+    private Long registerContent(Book book) {
+        if (book.getContentHash() == null) {
+            return null;
+        }
+        BookContent content = new BookContent();
+        content.setContentHash(book.getContentHash());
+        content.setEncryptedFilename(book.getEncryptedFilename());
+        content.setKeyFilename(book.getKeyFilename());
+        content.setMetadataFilename(book.getMetadataFilename());
+        content.setImagesFolder(book.getImagesFolder());
+        content.setTotalPages(book.getTotalPages());
+        try {
+            return bookContentRepository.save(content).getId();
+        } catch (DataIntegrityViolationException e) {
+            log.info("Content {} was registered concurrently, keeping files private to book{}",
+                    book.getContentHash(), book.getId());
+            return null;
+        }
+    }
+    
+    private IngestionJob advance(IngestionJob job, IngestionStatus status) {
+        job.setStatus(status);
+        job.setStageStartedAt(LocalDateTime.now());
+        return ingestionJobRepository.save(job);
+    }
+    
+    private void fail(IngestionJob job, String errorMessage) {
+        job.setStatus(IngestionStatus.FAILED);
+        job.setErrorMessage(errorMessage);
+        job.setCompletedAt(LocalDateTime.now());
+        ingestionJobRepository.save(job);
+        
+        try {
+            bookStorageService.deleteQuietly(bookStorageService.rawUploadPath(job.getRawFilename()));
+        } catch (Exception e) {
+            log.warn("Failed to remove raw upload for job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.cmc.service;
+
+import com.cmc.dto.BookManifest;
+import com.cmc.entity.ImageTier;
+import com.cmc.service.PDFProcessingService.PageSize;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manifest (manifest.json) của sách: số trang, kích thước pixel, dung lượng và phiên bản ảnh gốc từng trang,
+ * các tier ảnh. Được ghi lúc upload, sau khi render, vào thư mục ảnh (dùng chung giữa các sách cùng nội dung)
+ * và trả nguyên file cho client, không phải đọc ảnh hay truy vấn thêm.
+ * Trang chưa render (rendering.eager-pages) có kích thước tính từ kích thước PDF, không có bytes;
+ * khi trang được render lazy, manifest được đánh dấu cũ và ghi lại ở request tiếp theo.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BookManifestService {
+    
+    public static final String MANIFEST_FILE = "manifest.json";
+    private static final String STALE_MARKER = "manifest.stale";
+    
+    private final BookStorageService bookStorageService;
+    private final RenderingGovernor renderingGovernor;
+    private final ObjectMapper objectMapper;
+    
+    // Thư mục ảnh đã kiểm tra manifest đúng định dạng hiện tại (trong phiên chạy này)
+    private final Set<String> currentManifests = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * File manifest của sách. Manifest chưa có, định dạng cũ hoặc đã bị đánh dấu cũ được tạo lại
+     * từ page index của container và ảnh hiện có.
+     */
+    public Path getManifest(BookDescriptor book) throws IOException {
+        String imagesFolder = book.getImagesFolder();
+        Path path = manifestPath(imagesFolder);
+        Path staleMarker = path.resolveSibling(STALE_MARKER);
+        if (Files.exists(path) && !Files.exists(staleMarker) && isCurrent(imagesFolder, path)) {
+            return path;
+        }
+        
+        // Xóa marker trước khi đọc ảnh: trang render trong lúc build sẽ đánh dấu lại
+        Files.deleteIfExists(staleMarker);
+        log.debug("Rebuilding manifest for {}", imagesFolder);
+        return write(imagesFolder, book.getTotalPages(), book.getContentVersion(), bookStorageService.readPageSizes(book));
+    }
+    
+    /**
+     * Đánh dấu manifest cũ sau khi một trang được render lazy (bytes của trang đã có)
+     */
+    public void markStale(String imagesFolder) {
+        Path staleMarker = manifestPath(imagesFolder).resolveSibling(STALE_MARKER);
+        try {
+            Files.createFile(staleMarker);
+        } catch (FileAlreadyExistsException e) {
+            // Đã được đánh dấu
+        } catch (IOException e) {
+            log.warn("Failed to mark manifest of {} stale: {}", imagesFolder, e.getMessage());
+        }
+    }
+    
+    /**
+     * Tạo và ghi manifest cho thư mục ảnh (ghi file tạm rồi rename)
+     */
+    public Path write(String imagesFolder, int pageCount, String contentVersion, List<PageSize> pageSizes) throws IOException {
+        BookManifest manifest = build(imagesFolder, pageCount, contentVersion, pageSizes);
+        
+        Path target = manifestPath(imagesFolder);
+        Files.createDirectories(target.getParent());
+        Path tempFile = target.resolveSibling(MANIFEST_FILE + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.write(tempFile, objectMapper.writeValueAsBytes(manifest));
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            bookStorageService.deleteQuietly(tempFile);
+        }
+        currentManifests.add(imagesFolder);
+        return target;
+    }
+    
+    /**
+     * Manifest ghi trước khi etag theo phiên bản nội dung (version 1) cần được tạo lại
+     */
+    private boolean isCurrent(String imagesFolder, Path path) throws IOException {
+        if (currentManifests.contains(imagesFolder)) {
+            return true;
+        }
+        if (objectMapper.readTree(path.toFile()).path("version").asInt() < BookManifest.CURRENT_VERSION) {
+            return false;
+        }
+        currentManifests.add(imagesFolder);
+        return true;
+    }
+    
+    private BookManifest build(String imagesFolder, int pageCount, String contentVersion,
+                               List<PageSize> pageSizes) throws IOException {
+        BookManifest manifest = new BookManifest();
+        manifest.setPageCount(pageCount);
+        for (ImageTier tier : ImageTier.values()) {
+            manifest.getTiers().add(new BookManifest.Tier(tier.name(), tier.isFull() ? null : tier.getWidth()));
+        }
+        
+        for (int page = 1; page <= pageCount; page++) {
+            BookManifest.PageInfo info = new BookManifest.PageInfo();
+            info.setPage(page);
+            info.setEtag(BookDescriptor.pageVersion(contentVersion, page));
+            
+            Path image = bookStorageService.pageImagePath(imagesFolder, page);
+            BasicFileAttributes attributes = readAttributes(image);
+            int[] dimensions = attributes != null ? imageDimensions(image) : null;
+            if (dimensions == null && page <= pageSizes.size()) {
+                dimensions = renderedDimensions(pageSizes.get(page - 1));
+            }
+            if (dimensions != null) {
+                info.setWidth(dimensions[0]);
+                info.setHeight(dimensions[1]);
+            }
+            if (attributes != null) {
+                info.setBytes(attributes.size());
+            }
+            manifest.getPages().add(info);
+        }
+        return manifest;
+    }
+    
+    /**
+     * Kích thước ảnh gốc khi trang được render: 150 DPI, giảm DPI với trang quá khổ như lúc render
+     */
+    private int[] renderedDimensions(PageSize size) {
+        float dpi = renderingGovernor.dpiFor(size, PDFProcessingService.PAGE_DPI);
+        return new int[] {
+                (int) Math.max(1, Math.floor(size.getWidth() / 72.0 * dpi)),
+                (int) Math.max(1, Math.floor(size.getHeight() / 72.0 * dpi))
+        };
+    }
+    
+    /**
+     * Kích thước ảnh đọc từ header JPEG, không decode ảnh
+     */
+    private static int[] imageDimensions(Path image) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[] { reader.getWidth(0), reader.getHeight(0) };
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+    
+    private Path manifestPath(String imagesFolder) {
+        return bookStorageService.imagesDir(imagesFolder).resolve(MANIFEST_FILE);
+    }
+}
@@ -1,26 +1,34 @@
 package com.cmc.service;
 
+import com.cmc.dto.BookSession;
+import com.cmc.dto.ChunkedUploadSession;
+import com.cmc.dto.ResourceVersion;
 import com.cmc.entity.Book;
 import com.cmc.entity.DownloadLog;
 import com.cmc.entity.DownloadType;
+import com.cmc.entity.ImageTier;
+import com.cmc.entity.IngestionJob;
 import com.cmc.entity.User;
 import com.cmc.repository.BookRepository;
 import com.cmc.repository.DownloadLogRepository;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 
 @Service
@@ -30,21 +38,29 @@ public class BookService {
     
     private final BookRepository bookRepository;
     private final DownloadLogRepository downloadLogRepository;
-    private final EncryptionService encryptionService;
-    private final PDFProcessingService pdfProcessingService;
-    private final ObjectMapper objectMapper;
+    private final DownloadLogService downloadLogService;
+    private final BookIngestionService bookIngestionService;
+    private final BookStorageService bookStorageService;
+    private final PageDerivativeService pageDerivativeService;
+    private final WatermarkService watermarkService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final DataKeyCache dataKeyCache;
+    private final PagePrefetcher pagePrefetcher;
+    private final PageUrlService pageUrlService;
+    private final BookManifestService bookManifestService;
+    private final BookDescriptorCache bookDescriptorCache;
     
-    @Value("${storage.books-path}")
-    private String booksPath;
-    
-    @Value("${storage.temp-path}")
-    private String tempPath;
+    @Value("${images.batch-max-pages:20}")
+    private int batchMaxPages;
     
     /**
-     * Upload và xử lý sách mới (chỉ admin)
+     * Upload sách mới (chỉ admin).
+     * Chỉ lưu file gốc và tạo job, việc mã hóa và render chạy ở background.
+     * File được ghi và hash trước, không giữ connection database trong lúc copy (file có thể tới hàng trăm MB).
      */
-    public Book uploadBook(MultipartFile file, String title, String author, 
-                          String description, User uploadedBy) throws Exception {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public IngestionJob uploadBook(MultipartFile file, String title, String author, 
+                                   String description, User uploadedBy) throws Exception {
         
         // Validate file
         if (file.isEmpty()) {
@@ -55,96 +71,94 @@ public class BookService {
             throw new RuntimeException("Only PDF files are allowed");
         }
         
-        byte[] pdfData = file.getBytes();
-        
-        // Validate PDF
-        if (!pdfProcessingService.isValidPDF(pdfData)) {
-            throw new RuntimeException("Invalid PDF file");
+        // Lưu file gốc vào thư mục tạm, tính SHA-256 trong lúc ghi để dedup
+        String rawFilename = newRawFilename();
+        Path rawFile = bookStorageService.rawUploadPath(rawFilename);
+        String contentHash;
+        try (InputStream in = file.getInputStream()) {
+            contentHash = bookStorageService.writeWithDigest(in, rawFile);
+        } catch (IOException e) {
+            bookStorageService.deleteQuietly(rawFile);
+            throw new RuntimeException("Failed to store uploaded file: " + e.getMessage(), e);
         }
         
-        // Tạo directories nếu cần
-        Path booksDir = Paths.get(booksPath);
-        if (!Files.exists(booksDir)) {
-            Files.createDirectories(booksDir);
+        Book book = newPendingBook(title, author, description, file.getOriginalFilename(),
+                file.getSize(), uploadedBy);
+        book.setContentHash(contentHash);
+        return submit(book, rawFile, rawFilename);
+    }
+    
+    /**
+     * Hoàn tất upload theo chunk và đưa file vào pipeline xử lý như upload thường.
+     * Kiểm tra và hash file ghép (có thể vài GB) chạy ngoài transaction, chỉ lúc lưu book/job mới lấy connection.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public IngestionJob completeChunkedUpload(String uploadId, User uploadedBy) throws Exception {
+        Path spoolFile = chunkedUploadService.finish(uploadId, uploadedBy);
+        ChunkedUploadSession session = chunkedUploadService.getSession(uploadId, uploadedBy);
+        
+        Book book = newPendingBook(session.getTitle(), session.getAuthor(), session.getDescription(),
+                session.getFilename(), session.getTotalSize(), uploadedBy);
+        book.setContentHash(session.getSha256());
+        
+        // Chuyển file spool thành file gốc chờ xử lý
+        String rawFilename = newRawFilename();
+        Path rawFile = bookStorageService.rawUploadPath(rawFilename);
+        try {
+            Files.move(spoolFile, rawFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store uploaded file: " + e.getMessage(), e);
         }
+        chunkedUploadService.discard(uploadId);
         
-        // Tạo Book entity
+        return submit(book, rawFile, rawFilename);
+    }
+    
+    /**
+     * Lưu book và tạo job trong một transaction ngắn; file gốc bị xóa nếu không tạo được
+     */
+    private IngestionJob submit(Book book, Path rawFile, String rawFilename) {
+        try {
+            return bookIngestionService.submit(book, rawFilename);
+        } catch (RuntimeException e) {
+            bookStorageService.deleteQuietly(rawFile);
+            throw e;
+        }
+    }
+    
+    /**
+     * Tạo Book entity (chưa lưu), chưa active cho tới khi xử lý xong
+     */
+    private Book newPendingBook(String title, String author, String description,
+                                   String originalFilename, long fileSize, User uploadedBy) {
         Book book = new Book();
         book.setTitle(title);
         book.setAuthor(author);
         book.setDescription(description);
-        book.setOriginalFilename(file.getOriginalFilename());
-        book.setFileSize(file.getSize());
+        book.setOriginalFilename(originalFilename);
+        book.setFileSize(fileSize);
         book.setUploadedBy(uploadedBy);
-        book.setIsActive(true);
+        book.setIsActive(false);
         book.setCreatedAt(LocalDateTime.now());
-        
-        // Lưu book để có ID
-        book = bookRepository.save(book);
-        
-        String bookId = "book" + book.getId();
-        
-        try {
-            // 1. Tạo AES key ngẫu nhiên
-            SecretKey aesKey = encryptionService.generateAESKey();
-            
-            // 2. Mã hóa PDF bằng AES
-            EncryptionService.EncryptionResult encryptionResult = 
-                    encryptionService.encryptPDF(pdfData, aesKey);
-            
-            // 3. Mã hóa AES key bằng RSA
-            byte[] encryptedAESKey = encryptionService.encryptAESKey(aesKey);
-            
-            // 4. Lưu file mã hóa
-            String encryptedFilename = bookId + ".pdf.enc";
-            Path encryptedFilePath = booksDir.resolve(encryptedFilename);
-            Files.write(encryptedFilePath, encryptionResult.getEncryptedData());
-            
-            // 5. Lưu key mã hóa
-            String keyFilename = bookId + ".key.enc";
-            Path keyFilePath = booksDir.resolve(keyFilename);
-            Files.write(keyFilePath, encryptedAESKey);
-            
-            // 6. Lưu metadata
-            String metadataFilename = bookId + "_meta.json";
-            Path metadataFilePath = booksDir.resolve(metadataFilename);
-            
-            Map<String, Object> metadata = new HashMap<>();
-            metadata.put("iv", Base64.getEncoder().encodeToString(encryptionResult.getIv()));
-            metadata.put("authTag", Base64.getEncoder().encodeToString(encryptionResult.getAuthTag()));
-            metadata.put("algorithm", "AES-256-GCM");
-            metadata.put("uploadTime", LocalDateTime.now().toString());
-            metadata.put("originalFilename", file.getOriginalFilename());
-            metadata.put("fileSize", file.getSize());
-            
-            Files.write(metadataFilePath, objectMapper.writeValueAsBytes(metadata));
-            
-            // 7. Convert PDF thành ảnh với watermark
-            List<String> imageFiles = pdfProcessingService.convertPDFToImages(pdfData, bookId, uploadedBy);
-            
-            // 8. Lấy số trang
-            int totalPages = pdfProcessingService.getPDFPageCount(pdfData);
-            
-            // 9. Cập nhật thông tin book
-            book.setEncryptedFilename(encryptedFilename);
-            book.setKeyFilename(keyFilename);
-            book.setMetadataFilename(metadataFilename);
-            book.setImagesFolder(bookId + "_images");
-            book.setTotalPages(totalPages);
-            book.setUpdatedAt(LocalDateTime.now());
-            
-            return bookRepository.save(book);
-            
-        } catch (Exception e) {
-            // Cleanup nếu có lỗi
-            cleanup(bookId);
-            throw new RuntimeException("Failed to process book: " + e.getMessage(), e);
-        }
+        return book;
+    }
+    
+    private String newRawFilename() {
+        return "upload_" + UUID.randomUUID() + ".pdf";
+    }
+    
+    /**
+     * Lấy trạng thái xử lý upload
+     */
+    @Transactional(readOnly = true)
+    public Optional<IngestionJob> getIngestionJob(Long jobId) {
+        return bookIngestionService.getJob(jobId);
     }
     
     /**
      * Lấy danh sách sách
      */
+    @Transactional(readOnly = true)
     public Page<Book> getBooks(Pageable pageable) {
         return bookRepository.findByIsActiveTrueOrderByCreatedAtDesc(pageable);
     }
@@ -152,6 +166,7 @@ public class BookService {
     /**
      * Tìm kiếm sách
      */
+    @Transactional(readOnly = true)
     public Page<Book> searchBooks(String keyword, Pageable pageable) {
         return bookRepository.searchBooks(keyword, pageable);
     }
@@ -159,70 +174,215 @@ public class BookService {
     /**
      * Lấy thông tin sách
      */
+    @Transactional(readOnly = true)
     public Optional<Book> getBook(Long id) {
-        return bookRepository.findByIdAndIsActiveTrue(id);
+        return bookRepository.findWithUploaderById(id).filter(Book::getIsActive);
     }
     
     /**
-     * Lấy ảnh trang sách (cho người dùng standard)
+     * Thông tin bất biến của sách active (từ cache, không truy vấn DB khi cache đã có)
      */
-    public byte[] getBookPageImage(Long bookId, int pageNumber, User user) throws IOException {
-        Book book = bookRepository.findByIdAndIsActiveTrue(bookId)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Optional<BookDescriptor> getBookDescriptor(Long id) {
+        return bookDescriptorCache.get(id);
+    }
+    
+    private BookDescriptor activeBook(Long bookId) {
+        return bookDescriptorCache.get(bookId)
                 .orElseThrow(() -> new RuntimeException("Book not found"));
+    }
+    
+    /**
+     * Lấy ảnh trang sách (cho người dùng standard)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PageImage getBookPageImage(Long bookId, int pageNumber, User user) throws IOException {
+        return getBookPageImage(bookId, pageNumber, ImageTier.FULL, user);
+    }
+    
+    /**
+     * Lấy ảnh trang sách theo kích thước (tier)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PageImage getBookPageImage(Long bookId, int pageNumber, ImageTier tier, User user) throws IOException {
+        BookDescriptor book = activeBook(bookId);
         
         if (pageNumber < 1 || pageNumber > book.getTotalPages()) {
             throw new RuntimeException("Invalid page number");
         }
         
         // Log download
-        logDownload(user, book, DownloadType.IMAGE_VIEW, null);
+        downloadLogService.logPageView(user, book, pageNumber, pageNumber);
         
-        String imageFilename = String.format("page_%03d.jpg", pageNumber);
-        Path imagePath = Paths.get(booksPath, book.getImagesFolder(), imageFilename);
+        // Render trang nếu chưa có (lazy rendering), resize theo tier
+        Path imagePath = pageDerivativeService.getPage(book, pageNumber, tier);
         
-        if (!Files.exists(imagePath)) {
-            throw new RuntimeException("Image not found");
+        // Watermark của người đang xem
+        PageImage image = watermarkService.applyWatermark(imagePath, user);
+        
+        // Đọc tuần tự: chuẩn bị trước các trang tiếp theo ở background
+        pagePrefetcher.onPageView(book, pageNumber, tier, user);
+        return image;
+    }
+    
+    /**
+     * Lấy nhiều trang liên tiếp [from, to] trong một response: kiểm tra sách, khoảng trang
+     * và ghi log một lần cho cả khoảng; ảnh từng trang được render/watermark khi ghi ra stream
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PageBatch getBookPages(Long bookId, int from, int to, ImageTier tier, User user) {
+        BookDescriptor book = activeBook(bookId);
+        
+        if (from < 1 || to > book.getTotalPages() || from > to) {
+            throw new RuntimeException("Invalid page range");
         }
+        if (to - from + 1 > batchMaxPages) {
+            throw new RuntimeException("At most " + batchMaxPages + " pages per request");
+        }
+        
+        // Một log cho cả khoảng trang
+        downloadLogService.logPageView(user, book, from, to);
         
-        return Files.readAllBytes(imagePath);
+        return new PageBatch(pageDerivativeService, watermarkService, book, from, to, tier, user);
     }
     
     /**
-     * Tải PDF gốc (chỉ VIP)
+     * Tạo phiên đọc: kiểm tra sách một lần, ghi một log xem cho khoảng trang [from, to]
+     * (mặc định cả sách) và cấp URL ảnh đã ký cho từng trang
      */
-    public byte[] downloadPDF(Long bookId, User user, String userIp, String userAgent) throws Exception {
-        if (!user.isVip()) {
-            throw new RuntimeException("Only VIP users can download PDF");
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public BookSession openReadingSession(Long bookId, Integer from, Integer to, ImageTier tier, User user,
+                                          String baseUrl) {
+        BookDescriptor book = activeBook(bookId);
+        
+        int first = from != null ? from : 1;
+        int last = to != null ? to : book.getTotalPages();
+        if (first < 1 || last > book.getTotalPages() || first > last) {
+            throw new RuntimeException("Invalid page range");
         }
         
-        Book book = bookRepository.findByIdAndIsActiveTrue(bookId)
-                .orElseThrow(() -> new RuntimeException("Book not found"));
+        // Một log cho cả phiên, request ảnh qua URL ký không ghi log
+        downloadLogService.logPageView(user, book, first, last);
+        pageUrlService.openSession(book, user);
         
-        // Đọc file mã hóa
-        Path encryptedFilePath = Paths.get(booksPath, book.getEncryptedFilename());
-        byte[] encryptedData = Files.readAllBytes(encryptedFilePath);
+        long expires = pageUrlService.newExpiry();
+        BookSession session = new BookSession();
+        session.setBookId(book.getId());
+        session.setTitle(book.getTitle());
+        session.setTotalPages(book.getTotalPages());
+        session.setTier(tier.name());
+        session.setFromPage(first);
+        session.setToPage(last);
+        session.setExpiresAt(LocalDateTime.ofInstant(Instant.ofEpochSecond(expires), ZoneId.systemDefault()));
+        for (int page = first; page <= last; page++) {
+            session.getPageUrls().add(baseUrl + "/public/pages/" + book.getId() + "/" + page
+                    + "?tier=" + tier.name() + "&u=" + user.getId() + "&exp=" + expires
+                    + "&sig=" + pageUrlService.sign(user.getId(), book.getId(), page, tier, expires));
+        }
+        return session;
+    }
+    
+    /**
+     * Ảnh trang qua URL đã ký (chữ ký đã được kiểm tra ở controller).
+     * Không mở transaction và không ghi log; sách và người xem lấy từ phiên đọc trong bộ nhớ.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PageImage getSignedPageImage(Long bookId, int pageNumber, ImageTier tier, Long userId) throws IOException {
+        PageUrlService.ReadingSession session = pageUrlService.getSession(userId, bookId);
+        if (session == null) {
+            throw new RuntimeException("Book not found");
+        }
         
-        // Đọc key mã hóa
-        Path keyFilePath = Paths.get(booksPath, book.getKeyFilename());
-        byte[] encryptedKey = Files.readAllBytes(keyFilePath);
+        BookDescriptor book = session.book();
+        if (pageNumber < 1 || pageNumber > book.getTotalPages()) {
+            throw new RuntimeException("Invalid page number");
+        }
         
-        // Đọc metadata
-        Path metadataFilePath = Paths.get(booksPath, book.getMetadataFilename());
-        String metadataJson = Files.readString(metadataFilePath);
-        Map<String, Object> metadata = objectMapper.readValue(metadataJson, Map.class);
+        Path imagePath = pageDerivativeService.getPage(book, pageNumber, tier);
+        PageImage image = watermarkService.applyWatermark(imagePath, session.viewer());
+        pagePrefetcher.onPageView(book, pageNumber, tier, session.viewer());
+        return image;
+    }
+    
+    /**
+     * ETag / Last-Modified của ảnh trang để trả 304 mà không đọc ảnh và không ghi log.
+     * ETag theo nội dung sách, trang, tier và người xem (watermark khác nhau theo người xem),
+     * không phụ thuộc việc trang đã được render hay render lại: "{etag trong manifest}-{tier}-{userId}".
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ResourceVersion getPageVersion(Long bookId, int pageNumber, ImageTier tier, User user) throws IOException {
+        BookDescriptor book = activeBook(bookId);
         
-        byte[] iv = Base64.getDecoder().decode((String) metadata.get("iv"));
+        if (pageNumber < 1 || pageNumber > book.getTotalPages()) {
+            throw new RuntimeException("Invalid page number");
+        }
         
-        // Giải mã AES key
-        SecretKey aesKey = encryptionService.decryptAESKey(encryptedKey);
+        String eTag = "\"" + book.pageVersion(pageNumber) + "-" + tier.name().toLowerCase()
+                + "-" + user.getId() + "\"";
+        return new ResourceVersion(eTag, lastModified(bookStorageService.booksDir().resolve(book.getEncryptedFilename())));
+    }
+    
+    /**
+     * ETag / Last-Modified của PDF gốc. ETag theo nội dung PDF (SHA-256 khi có),
+     * không đổi khi file được mã hóa lại hay chuyển định dạng lưu trữ.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ResourceVersion getPdfVersion(Long bookId) throws IOException {
+        BookDescriptor book = activeBook(bookId);
         
-        // Giải mã PDF
-        byte[] pdfData = encryptionService.decryptPDF(encryptedData, aesKey, iv);
+        long lastModified = lastModified(bookStorageService.booksDir().resolve(book.getEncryptedFilename()));
+        return new ResourceVersion("\"" + book.getContentVersion() + "\"", lastModified);
+    }
+    
+    private static long lastModified(Path path) throws IOException {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * File manifest.json của sách (kích thước, dung lượng, phiên bản từng trang), trả nguyên file cho client
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Path getBookManifest(Long bookId) throws IOException {
+        BookDescriptor book = activeBook(bookId);
         
-        // Log download
-        logDownload(user, book, DownloadType.PDF_DOWNLOAD, userIp, userAgent);
+        return bookManifestService.getManifest(book);
+    }
+    
+    /**
+     * Ảnh thumbnail (trang đầu) cho danh sách sách, không ghi log xem trang
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PageImage getBookThumbnail(Long bookId) throws IOException {
+        BookDescriptor book = activeBook(bookId);
         
-        return pdfData;
+        // Ảnh sạch trên đĩa, gửi thẳng từ file
+        return PageImage.of(pageDerivativeService.getPage(book, 1, ImageTier.THUMBNAIL));
+    }
+    
+    /**
+     * Mở PDF gốc để tải (chỉ VIP), việc giải mã diễn ra khi ghi response.
+     * Không ghi log: caller gọi logDownload khi đã biết request là một lượt tải mới
+     * (không phải request range tiếp nối, không bị từ chối).
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public PdfContent downloadPDF(Long bookId, User user) throws Exception {
+        if (!user.isVip()) {
+            throw new RuntimeException("Only VIP users can download PDF");
+        }
+        
+        return bookStorageService.openPdf(activeBook(bookId));
+    }
+    
+    /**
+     * Ghi log một lượt tải PDF
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void logDownload(Long bookId, User user, String userIp, String userAgent) {
+        downloadLogService.logDownload(user, activeBook(bookId), userIp, userAgent);
     }
     
     /**
@@ -232,8 +392,17 @@ public class BookService {
         Book book = bookRepository.findById(bookId)
                 .orElseThrow(() -> new RuntimeException("Book not found"));
         
-        // Xóa files
-        cleanup("book" + book.getId());
+        dataKeyCache.invalidate(bookId);
+        bookDescriptorCache.invalidate(bookId);
+        pageUrlService.invalidateBook(bookId);
+        
+        // Xóa files: content dùng chung chỉ bị xóa khi không còn book nào tham chiếu
+        if (book.getContentId() != null) {
+            bookStorageService.releaseContent(book.getContentId());
+            book.setContentId(null);
+        } else {
+            bookStorageService.deleteBookFiles("book" + book.getId());
+        }
         
         // Đánh dấu inactive
         book.setIsActive(false);
@@ -244,6 +413,7 @@ public class BookService {
     /**
      * Lấy thống kê downloads
      */
+    @Transactional(readOnly = true)
     public Map<String, Object> getBookStatistics(Long bookId) {
         Book book = bookRepository.findByIdAndIsActiveTrue(bookId)
                 .orElseThrow(() -> new RuntimeException("Book not found"));
@@ -258,68 +428,21 @@ public class BookService {
                 .filter(log -> log.getDownloadType() == DownloadType.IMAGE_VIEW)
                 .count();
         
+        // Một lượt xem batch ghi một log cho nhiều trang
+        long pagesViewed = logs.stream()
+                .filter(log -> log.getDownloadType() == DownloadType.IMAGE_VIEW)
+                .mapToLong(log -> log.getPageFrom() != null ? log.getPageTo() - log.getPageFrom() + 1 : 1)
+                .sum();
+        
         Map<String, Object> stats = new HashMap<>();
         stats.put("bookId", bookId);
         stats.put("title", book.getTitle());
         stats.put("totalPages", book.getTotalPages());
         stats.put("pdfDownloads", pdfDownloads);
         stats.put("imageViews", imageViews);
+        stats.put("pagesViewed", pagesViewed);
         stats.put("totalInteractions", pdfDownloads + imageViews);
         
         return stats;
     }
-    
-    /**
-     * Log download/view activity
-     */
-    private void logDownload(User user, Book book, DownloadType type, String userIp) {
-        logDownload(user, book, type, userIp, null);
-    }
-    
-    private void logDownload(User user, Book book, DownloadType type, String userIp, String userAgent) {
-        DownloadLog log = new DownloadLog();
-        log.setUser(user);
-        log.setBook(book);
-        log.setDownloadType(type);
-        log.setUserIp(userIp);
-        log.setUserAgent(userAgent);
-        log.setDownloadTime(LocalDateTime.now());
-        
-        downloadLogRepository.save(log);
-    }
-    
-    /**
-     * Cleanup files khi có lỗi hoặc xóa
-     */
-    private void cleanup(String bookId) {
-        try {
-            Path booksDir = Paths.get(booksPath);
-            
-            // Xóa file mã hóa
-            Files.deleteIfExists(booksDir.resolve(bookId + ".pdf.enc"));
-            
-            // Xóa key file
-            Files.deleteIfExists(booksDir.resolve(bookId + ".key.enc"));
-            
-            // Xóa metadata
-            Files.deleteIfExists(booksDir.resolve(bookId + "_meta.json"));
-            
-            // Xóa thư mục ảnh
-            Path imagesDir = booksDir.resolve(bookId + "_images");
-            if (Files.exists(imagesDir)) {
-                Files.walk(imagesDir)
-                     .sorted(Comparator.reverseOrder())
-                     .forEach(path -> {
-                         try {
-                             Files.delete(path);
-                         } catch (IOException e) {
-                             // Ignore
-                         }
-                     });
-            }
-        } catch (IOException e) {
-            // Log error but don't throw
-            System.err.println("Failed to cleanup files for " + bookId + ": " + e.getMessage());
-        }
-    }
 }
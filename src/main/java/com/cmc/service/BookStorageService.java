@@ -0,0 +1,362 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import com.cmc.entity.BookContent;
+import com.cmc.repository.BookContentRepository;
+import com.cmc.service.PDFProcessingService.PageSize;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BookStorageService {
+    
+    // Thư mục con chứa ảnh trang gốc (chưa watermark) trong imagesFolder
+    public static final String BASE_IMAGES_FOLDER = "base";
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    
+    private final EncryptionService encryptionService;
+    private final ObjectMapper objectMapper;
+    private final BookContentRepository bookContentRepository;
+    private final DataKeyCache dataKeyCache;
+    
+    @Value("${storage.books-path}")
+    private String booksPath;
+    
+    @Value("${storage.temp-path}")
+    private String tempPath;
+    
+    /**
+     * Thư mục lưu sách, tạo nếu chưa có
+     */
+    public Path booksDir() throws IOException {
+        Path booksDir = Paths.get(booksPath);
+        if (!Files.exists(booksDir)) {
+            Files.createDirectories(booksDir);
+        }
+        return booksDir;
+    }
+    
+    /**
+     * Thư mục tạm, tạo nếu chưa có
+     */
+    public Path tempDir() throws IOException {
+        Path tempDir = Paths.get(tempPath);
+        if (!Files.exists(tempDir)) {
+            Files.createDirectories(tempDir);
+        }
+        return tempDir;
+    }
+    
+    /**
+     * File tạm chứa PDF gốc chờ xử lý
+     */
+    public Path rawUploadPath(String rawFilename) throws IOException {
+        return tempDir().resolve(rawFilename);
+    }
+    
+    /**
+     * Ghi stream vào file và tính SHA-256 trong cùng một lượt đọc, trả về hash dạng hex
+     */
+    public String writeWithDigest(InputStream in, Path target) throws IOException {
+        MessageDigest digest = sha256Digest();
+        try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+             OutputStream out = Files.newOutputStream(target)) {
+            digestIn.transferTo(out);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Tên file ảnh của trang (pageNumber bắt đầu từ 1)
+     */
+    public static String pageFileName(int pageNumber) {
+        return String.format("page_%03d.jpg", pageNumber);
+    }
+    
+    /**
+     * Thư mục ảnh của sách
+     */
+    public Path imagesDir(String imagesFolder) {
+        return Paths.get(booksPath, imagesFolder);
+    }
+    
+    /**
+     * Thư mục ảnh gốc (chưa watermark) của sách
+     */
+    public Path baseImagesDir(String imagesFolder) {
+        return imagesDir(imagesFolder).resolve(BASE_IMAGES_FOLDER);
+    }
+    
+    /**
+     * Đường dẫn ảnh gốc của một trang
+     */
+    public Path pageImagePath(String imagesFolder, int pageNumber) {
+        return baseImagesDir(imagesFolder).resolve(pageFileName(pageNumber));
+    }
+    
+    /**
+     * Mở PDF gốc của sách để giải mã dạng stream.
+     * Hỗ trợ cả định dạng segmented và file cũ mã hóa một khối.
+     */
+    public PdfContent openPdf(BookDescriptor book) throws Exception {
+        Path encryptedFilePath = Paths.get(booksPath, book.getEncryptedFilename());
+        
+        if (BookContainer.isContainer(book.getEncryptedFilename())) {
+            // Một file, một lần đọc header: key đã bọc RSA và tham số segment
+            BookContainer container = BookContainer.read(encryptedFilePath);
+            SecretKey aesKey = dataKeyCache.get(book.getId(), book.getKeyFilename());
+            if (aesKey == null) {
+                aesKey = encryptionService.decryptAESKey(container.getWrappedKey());
+                dataKeyCache.put(book.getId(), book.getKeyFilename(), aesKey);
+            }
+            return PdfContent.segmented(encryptionService, encryptedFilePath, aesKey, container.getSegments());
+        }
+        
+        // Sách chưa chuyển sang container: .pdf.enc + .key.enc (+ _meta.json)
+        SecretKey aesKey = dataKeyCache.get(book.getId(), book.getKeyFilename());
+        if (aesKey == null) {
+            Path keyFilePath = Paths.get(booksPath, book.getKeyFilename());
+            byte[] encryptedKey = Files.readAllBytes(keyFilePath);
+            aesKey = encryptionService.decryptAESKey(encryptedKey);
+            dataKeyCache.put(book.getId(), book.getKeyFilename(), aesKey);
+        }
+        
+        EncryptionService.SegmentedHeader header = encryptionService.readSegmentedHeader(encryptedFilePath);
+        if (header != null) {
+            return PdfContent.segmented(encryptionService, encryptedFilePath, aesKey, header);
+        }
+        
+        // File cũ: IV nằm trong metadata
+        return PdfContent.legacy(encryptionService, encryptedFilePath, aesKey, readLegacyIv(book));
+    }
+    
+    /**
+     * Mã hóa PDF vào container .book mới (key mã hóa bằng RSA, page index và các segment)
+     */
+    public void writeContainer(Path source, Path target, SecretKey aesKey, List<PageSize> pageSizes) throws Exception {
+        byte[] wrappedKey = encryptionService.encryptAESKey(aesKey);
+        EncryptionService.SegmentedHeader segments = encryptionService.newSegmentedHeader(
+                Files.size(source), BookContainer.headerLength(wrappedKey.length, pageSizes.size()));
+        BookContainer container = new BookContainer(wrappedKey, segments, pageSizes);
+        
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source), STREAM_BUFFER_SIZE);
+             FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, container.encodeHeader());
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), STREAM_BUFFER_SIZE);
+            encryptionService.encryptSegmented(in, out, segments, aesKey);
+            out.flush();
+        }
+    }
+    
+    /**
+     * Chuyển bộ ba .pdf.enc + .key.enc + _meta.json của một sách sang container, ghi file tạm rồi rename.
+     * File segmented chỉ cần chép nguyên các segment; file một khối cũ được giải mã và mã hóa lại.
+     * Files cũ không bị xóa ở đây (caller xóa sau khi đã cập nhật database).
+     */
+    public void migrateToContainer(Book entity, String containerFilename) throws Exception {
+        BookDescriptor book = BookDescriptor.of(entity);
+        Path booksDir = booksDir();
+        Path encryptedFile = booksDir.resolve(book.getEncryptedFilename());
+        byte[] wrappedKey = Files.readAllBytes(booksDir.resolve(book.getKeyFilename()));
+        List<PageSize> pageSizes = legacyPageSizes(book);
+        
+        long dataOffset = BookContainer.headerLength(wrappedKey.length, pageSizes.size());
+        Path target = booksDir.resolve(containerFilename);
+        Path tempFile = booksDir.resolve(containerFilename + ".tmp");
+        
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            EncryptionService.SegmentedHeader existing = encryptionService.readSegmentedHeader(encryptedFile);
+            if (existing != null) {
+                // Nonce và AAD không phụ thuộc vị trí trong file nên segment giữ nguyên từng byte
+                BookContainer container = new BookContainer(wrappedKey, existing.withDataOffset(dataOffset), pageSizes);
+                writeFully(out, container.encodeHeader());
+                try (FileChannel in = FileChannel.open(encryptedFile, StandardOpenOption.READ)) {
+                    long position = existing.dataOffset();
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            } else {
+                SecretKey aesKey = encryptionService.decryptAESKey(wrappedKey);
+                byte[] iv = readLegacyIv(book);
+                byte[] plaintext = encryptionService.decryptPDF(Files.readAllBytes(encryptedFile), aesKey, iv);
+                EncryptionService.SegmentedHeader segments =
+                        encryptionService.newSegmentedHeader(plaintext.length, dataOffset);
+                BookContainer container = new BookContainer(wrappedKey, segments, pageSizes);
+                writeFully(out, container.encodeHeader());
+                OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(out), STREAM_BUFFER_SIZE);
+                encryptionService.encryptSegmented(new ByteArrayInputStream(plaintext), stream, segments, aesKey);
+                stream.flush();
+            }
+            out.force(true);
+        } catch (Exception e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    private byte[] readLegacyIv(BookDescriptor book) throws IOException {
+        return Base64.getDecoder().decode((String) readMetadata(book).get("iv"));
+    }
+    
+    /**
+     * Kích thước từng trang (point): page index của container, hoặc metadata JSON với định dạng cũ
+     */
+    public List<PageSize> readPageSizes(BookDescriptor book) throws IOException {
+        if (BookContainer.isContainer(book.getEncryptedFilename())) {
+            return BookContainer.read(booksDir().resolve(book.getEncryptedFilename())).getPageIndex();
+        }
+        return legacyPageSizes(book);
+    }
+    
+    private List<PageSize> legacyPageSizes(BookDescriptor book) throws IOException {
+        List<PageSize> pageSizes = new ArrayList<>();
+        if (readMetadata(book).get("pageSizes") instanceof List<?> sizes) {
+            for (Object size : sizes) {
+                Map<?, ?> page = (Map<?, ?>) size;
+                pageSizes.add(new PageSize(((Number) page.get("width")).floatValue(),
+                                           ((Number) page.get("height")).floatValue()));
+            }
+        }
+        return pageSizes;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readMetadata(BookDescriptor book) throws IOException {
+        Path metadataFilePath = Paths.get(booksPath, book.getMetadataFilename());
+        if (!Files.exists(metadataFilePath)) {
+            return Map.of();
+        }
+        return objectMapper.readValue(Files.readString(metadataFilePath), Map.class);
+    }
+    
+    /**
+     * Xóa file, bỏ qua lỗi
+     */
+    public void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+    
+    /**
+     * Cleanup files khi có lỗi hoặc xóa
+     */
+    public void deleteBookFiles(String bookId) {
+        try {
+            Path booksDir = Paths.get(booksPath);
+            
+            // Xóa container
+            Files.deleteIfExists(booksDir.resolve(bookId + BookContainer.EXTENSION));
+            
+            // Xóa file mã hóa (định dạng trước container)
+            Files.deleteIfExists(booksDir.resolve(bookId + ".pdf.enc"));
+            
+            // Xóa key file
+            Files.deleteIfExists(booksDir.resolve(bookId + ".key.enc"));
+            
+            // Xóa metadata
+            Files.deleteIfExists(booksDir.resolve(bookId + "_meta.json"));
+            
+            // Xóa thư mục ảnh
+            deleteDirectory(booksDir.resolve(bookId + "_images"));
+        } catch (IOException e) {
+            // Log error but don't throw
+            log.error("Failed to cleanup files for {}: {}", bookId, e.getMessage());
+        }
+    }
+    
+    /**
+     * Bỏ một tham chiếu tới content dùng chung, xóa files khi không còn book nào dùng
+     */
+    public void releaseContent(Long contentId) {
+        Optional<BookContent> content = bookContentRepository.findById(contentId);
+        if (content.isEmpty() || bookContentRepository.release(contentId) == 0) {
+            return;
+        }
+        if (bookContentRepository.deleteIfUnreferenced(contentId) == 1) {
+            deleteContentFiles(content.get());
+        }
+    }
+    
+    private void deleteContentFiles(BookContent content) {
+        try {
+            Path booksDir = Paths.get(booksPath);
+            Files.deleteIfExists(booksDir.resolve(content.getEncryptedFilename()));
+            Files.deleteIfExists(booksDir.resolve(content.getKeyFilename()));
+            Files.deleteIfExists(booksDir.resolve(content.getMetadataFilename()));
+            deleteDirectory(booksDir.resolve(content.getImagesFolder()));
+            log.info("Deleted shared content {} ({})", content.getId(), content.getEncryptedFilename());
+        } catch (IOException e) {
+            log.error("Failed to cleanup shared content {}: {}", content.getId(), e.getMessage());
+        }
+    }
+    
+    private void deleteDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
+                 .forEach(path -> {
+                     try {
+                         Files.delete(path);
+                     } catch (IOException e) {
+                         // Ignore
+                     }
+                 });
+        }
+    }
+}
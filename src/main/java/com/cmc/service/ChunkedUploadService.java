@@ -0,0 +1,308 @@
+package com.cmc.service;
+
+import com.cmc.dto.ChunkedUploadInitRequest;
+import com.cmc.dto.ChunkedUploadSession;
+import com.cmc.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Upload file lớn theo từng chunk, có thể resume khi mất kết nối.
+ * Mỗi phiên upload có một file spool (.part) trong storage.temp-path, chunk được ghi
+ * đúng vị trí offset của nó, trạng thái phiên lưu trong file .json bên cạnh để resume sau restart.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkedUploadService {
+    
+    private static final String UPLOADS_FOLDER = "chunked";
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    
+    private final BookStorageService bookStorageService;
+    private final ObjectMapper objectMapper;
+    
+    @Value("${upload.chunk-size:8388608}")
+    private long chunkSize;
+    
+    @Value("${upload.max-file-size:2147483648}")
+    private long maxFileSize;
+    
+    @Value("${upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+    
+    private final ConcurrentMap<String, ChunkedUploadSession> sessions = new ConcurrentHashMap<>();
+    
+    /**
+     * Khởi tạo phiên upload
+     */
+    public ChunkedUploadSession init(ChunkedUploadInitRequest request, User user) throws IOException {
+        if (request.getFilename() == null || !request.getFilename().toLowerCase().endsWith(".pdf")) {
+            throw new RuntimeException("Only PDF files are allowed");
+        }
+        if (request.getTotalSize() == null || request.getTotalSize() <= 0) {
+            throw new RuntimeException("File is empty");
+        }
+        if (request.getTotalSize() > maxFileSize) {
+            throw new RuntimeException("File size too large. Maximum allowed size is " + maxFileSize + " bytes");
+        }
+        if (request.getTitle() == null || request.getTitle().isBlank()) {
+            throw new RuntimeException("Title is required");
+        }
+        
+        purgeExpiredSessions();
+        
+        ChunkedUploadSession session = new ChunkedUploadSession();
+        session.setUploadId(UUID.randomUUID().toString());
+        session.setFilename(request.getFilename());
+        session.setSha256(request.getSha256());
+        session.setTitle(request.getTitle());
+        session.setAuthor(request.getAuthor());
+        session.setDescription(request.getDescription());
+        session.setTotalSize(request.getTotalSize());
+        session.setChunkSize(chunkSize);
+        session.setTotalChunks((int) ((request.getTotalSize() + chunkSize - 1) / chunkSize));
+        session.setUploadedById(user.getId());
+        
+        // Tạo file spool rỗng, chunk sẽ ghi vào đúng offset
+        Files.createFile(partPath(session.getUploadId()));
+        saveState(session);
+        sessions.put(session.getUploadId(), session);
+        
+        return session;
+    }
+    
+    /**
+     * Lấy trạng thái phiên upload (để client biết cần gửi lại chunk nào)
+     */
+    public ChunkedUploadSession getSession(String uploadId, User user) throws IOException {
+        ChunkedUploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            session = loadState(uploadId);
+            ChunkedUploadSession existing = sessions.putIfAbsent(uploadId, session);
+            if (existing != null) {
+                session = existing;
+            }
+        }
+        
+        if (!session.getUploadedById().equals(user.getId())) {
+            throw new RuntimeException("Upload session belongs to another user");
+        }
+        return session;
+    }
+    
+    /**
+     * Ghi một chunk vào file spool, kiểm tra SHA-256 của chunk.
+     * Chunk chỉ được đánh dấu đã nhận khi đủ độ dài và đúng checksum.
+     */
+    public ChunkedUploadSession writeChunk(String uploadId, int index, String sha256,
+                                           InputStream body, User user) throws IOException {
+        ChunkedUploadSession session = getSession(uploadId, user);
+        
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new RuntimeException("Invalid chunk index: " + index);
+        }
+        if (sha256 == null || sha256.isBlank()) {
+            throw new RuntimeException("Chunk checksum is required");
+        }
+        
+        long expectedLength = session.chunkLength(index);
+        long offset = index * session.getChunkSize();
+        MessageDigest digest = sha256Digest();
+        
+        // Gửi lại chunk đã nhận sẽ ghi đè vùng của nó: bỏ đánh dấu trước khi ghi để nếu chunk mới
+        // sai độ dài/checksum thì chunk này được coi là còn thiếu, không phải dữ liệu hỏng
+        synchronized (session) {
+            if (session.getReceivedChunks().remove(index)) {
+                session.setUpdatedAt(LocalDateTime.now());
+                saveState(session);
+            }
+        }
+        
+        long written = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        try (ReadableByteChannel in = Channels.newChannel(body);
+             FileChannel out = FileChannel.open(partPath(uploadId), StandardOpenOption.WRITE)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                if (written + buffer.remaining() > expectedLength) {
+                    throw new RuntimeException("Chunk " + index + " is larger than " + expectedLength + " bytes");
+                }
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer, offset + written);
+                }
+                buffer.clear();
+            }
+        }
+        
+        if (written != expectedLength) {
+            throw new RuntimeException("Chunk " + index + " is incomplete: " + written + "/" + expectedLength + " bytes");
+        }
+        if (!MessageDigest.isEqual(digest.digest(), parseHex(sha256))) {
+            throw new RuntimeException("Checksum mismatch for chunk " + index);
+        }
+        
+        synchronized (session) {
+            session.getReceivedChunks().add(index);
+            session.setUpdatedAt(LocalDateTime.now());
+            saveState(session);
+        }
+        return session;
+    }
+    
+    /**
+     * Kết thúc upload: kiểm tra đủ chunk và checksum cả file, trả về file spool.
+     * Sau khi gọi, session.getSha256() là hash thực của file.
+     */
+    public Path finish(String uploadId, User user) throws IOException {
+        ChunkedUploadSession session = getSession(uploadId, user);
+        if (!session.isComplete()) {
+            throw new RuntimeException("Missing chunks: " + session.getMissingChunks());
+        }
+        
+        Path partPath = partPath(uploadId);
+        if (Files.size(partPath) != session.getTotalSize()) {
+            throw new RuntimeException("Uploaded size does not match declared size");
+        }
+        
+        // Hash cả file luôn được tính, dùng cho dedup khi xử lý
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(partPath)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] actual = digest.digest();
+        if (session.getSha256() != null && !session.getSha256().isBlank()
+                && !MessageDigest.isEqual(actual, parseHex(session.getSha256()))) {
+            throw new RuntimeException("Checksum mismatch for uploaded file");
+        }
+        session.setSha256(HexFormat.of().formatHex(actual));
+        return partPath;
+    }
+    
+    /**
+     * Xóa phiên upload và file tạm
+     */
+    public void discard(String uploadId) throws IOException {
+        sessions.remove(uploadId);
+        bookStorageService.deleteQuietly(partPath(uploadId));
+        bookStorageService.deleteQuietly(statePath(uploadId));
+    }
+    
+    /**
+     * Dọn các phiên upload quá hạn và file trạng thái tạm còn sót lại sau crash
+     */
+    private void purgeExpiredSessions() throws IOException {
+        LocalDateTime expiry = LocalDateTime.now().minusHours(sessionTtlHours);
+        Instant tempExpiry = expiry.atZone(ZoneId.systemDefault()).toInstant();
+        try (Stream<Path> files = Files.list(uploadsDir())) {
+            files.forEach(path -> {
+                String filename = path.getFileName().toString();
+                try {
+                    if (filename.endsWith(TEMP_SUFFIX)) {
+                        if (Files.getLastModifiedTime(path).toInstant().isBefore(tempExpiry)) {
+                            bookStorageService.deleteQuietly(path);
+                        }
+                    } else if (filename.endsWith(STATE_SUFFIX)) {
+                        String uploadId = filename.replace(STATE_SUFFIX, "");
+                        ChunkedUploadSession session = objectMapper.readValue(path.toFile(), ChunkedUploadSession.class);
+                        if (session.getUpdatedAt().isBefore(expiry)) {
+                            log.info("Discarding expired upload session {}", uploadId);
+                            discard(uploadId);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to read upload session file {}: {}", filename, e.getMessage());
+                }
+            });
+        }
+    }
+    
+    private ChunkedUploadSession loadState(String uploadId) throws IOException {
+        Path statePath = statePath(uploadId);
+        if (!Files.exists(statePath)) {
+            throw new RuntimeException("Upload session not found");
+        }
+        return objectMapper.readValue(statePath.toFile(), ChunkedUploadSession.class);
+    }
+    
+    /**
+     * Ghi trạng thái phiên (ghi file tạm rồi rename) để crash giữa chừng không để lại JSON hỏng
+     */
+    private void saveState(ChunkedUploadSession session) throws IOException {
+        Path target = statePath(session.getUploadId());
+        Path tempFile = target.resolveSibling(target.getFileName() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        try {
+            Files.write(tempFile, objectMapper.writeValueAsBytes(session));
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            bookStorageService.deleteQuietly(tempFile);
+        }
+    }
+    
+    private Path uploadsDir() throws IOException {
+        Path dir = bookStorageService.tempDir().resolve(UPLOADS_FOLDER);
+        if (!Files.exists(dir)) {
+            Files.createDirectories(dir);
+        }
+        return dir;
+    }
+    
+    private Path partPath(String uploadId) throws IOException {
+        return uploadsDir().resolve(safeUploadId(uploadId) + PART_SUFFIX);
+    }
+    
+    private Path statePath(String uploadId) throws IOException {
+        return uploadsDir().resolve(safeUploadId(uploadId) + STATE_SUFFIX);
+    }
+    
+    private String safeUploadId(String uploadId) {
+        try {
+            return UUID.fromString(uploadId).toString();
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Upload session not found");
+        }
+    }
+    
+    private byte[] parseHex(String hex) {
+        try {
+            return HexFormat.of().parseHex(hex.trim().toLowerCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid SHA-256 checksum");
+        }
+    }
+    
+    private MessageDigest sha256Digest() {
+        return BookStorageService.sha256Digest();
+    }
+}
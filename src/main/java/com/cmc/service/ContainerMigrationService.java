@@ -0,0 +1,91 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import com.cmc.repository.BookContentRepository;
+import com.cmc.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Chuyển sách lưu theo bộ ba .pdf.enc + .key.enc + _meta.json sang container .book.
+ * Chạy lại an toàn: sách đã là container được bỏ qua, lỗi ở một sách không dừng cả đợt.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ContainerMigrationService {
+    
+    private static final String LEGACY_EXTENSION = ".pdf.enc";
+    
+    private final BookRepository bookRepository;
+    private final BookContentRepository bookContentRepository;
+    private final BookStorageService bookStorageService;
+    private final BookDescriptorCache bookDescriptorCache;
+    
+    /**
+     * Chuyển tất cả sách còn dùng định dạng cũ, trả về số file đã chuyển
+     */
+    public int migrateAll() {
+        // Sách dùng chung content (dedup) trỏ tới cùng bộ files, chỉ chuyển một lần
+        Map<String, List<Book>> booksByFile = bookRepository.findByEncryptedFilenameEndingWith(LEGACY_EXTENSION)
+                .stream()
+                .collect(Collectors.groupingBy(Book::getEncryptedFilename, LinkedHashMap::new, Collectors.toList()));
+        
+        int migrated = 0;
+        for (Map.Entry<String, List<Book>> entry : booksByFile.entrySet()) {
+            try {
+                if (migrate(entry.getKey(), entry.getValue())) {
+                    migrated++;
+                }
+            } catch (Exception e) {
+                log.error("Failed to migrate {} to container: {}", entry.getKey(), e.getMessage(), e);
+            }
+        }
+        return migrated;
+    }
+    
+    private boolean migrate(String encryptedFilename, List<Book> books) throws Exception {
+        Path booksDir = bookStorageService.booksDir();
+        if (!Files.exists(booksDir.resolve(encryptedFilename))) {
+            // Sách đã bị xóa, files không còn
+            return false;
+        }
+        
+        Book source = books.get(0);
+        String keyFilename = source.getKeyFilename();
+        String metadataFilename = source.getMetadataFilename();
+        String containerFilename = encryptedFilename.substring(0, encryptedFilename.length() - LEGACY_EXTENSION.length())
+                + BookContainer.EXTENSION;
+        bookStorageService.migrateToContainer(source, containerFilename);
+        
+        for (Book book : books) {
+            book.setEncryptedFilename(containerFilename);
+            book.setKeyFilename(containerFilename);
+            book.setMetadataFilename(containerFilename);
+        }
+        bookRepository.saveAll(books);
+        books.forEach(book -> bookDescriptorCache.invalidate(book.getId()));
+        bookContentRepository.findByEncryptedFilename(encryptedFilename).ifPresent(content -> {
+            content.setEncryptedFilename(containerFilename);
+            content.setKeyFilename(containerFilename);
+            content.setMetadataFilename(containerFilename);
+            bookContentRepository.save(content);
+        });
+        
+        // Database đã trỏ sang container, files cũ không còn được dùng
+        bookStorageService.deleteQuietly(booksDir.resolve(encryptedFilename));
+        bookStorageService.deleteQuietly(booksDir.resolve(keyFilename));
+        bookStorageService.deleteQuietly(booksDir.resolve(metadataFilename));
+        
+        log.info("Migrated {} ({} books) to {}", encryptedFilename, books.size(), containerFilename);
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package com.cmc.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Cache AES key đã giải mã (unwrap bằng RSA private key) theo book id.
+ * Mỗi lần tải PDF không còn phải chạy RSA-OAEP cho sách đang được đọc nhiều.
+ * Key bị xóa khỏi cache sau TTL, khi xóa sách hoặc khi file key đổi (xoay key);
+ * key material bị ghi đè bằng 0 khi entry bị loại.
+ */
+@Service
+public class DataKeyCache {
+    
+    private final Cache<Long, CachedKey> keys;
+    
+    public DataKeyCache(MeterRegistry meterRegistry,
+                        @Value("${encryption.key-cache.max-size:1000}") long maxSize,
+                        @Value("${encryption.key-cache.ttl:10m}") Duration ttl) {
+        this.keys = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .removalListener((Long bookId, CachedKey key, RemovalCause cause) -> {
+                    if (key != null) {
+                        key.destroy();
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, keys, "book.data-keys");
+    }
+    
+    /**
+     * Lấy AES key của sách từ cache, null nếu chưa có hoặc file key đã đổi
+     */
+    public SecretKey get(Long bookId, String keyFilename) {
+        CachedKey cached = keys.getIfPresent(bookId);
+        if (cached == null) {
+            return null;
+        }
+        if (!cached.keyFilename.equals(keyFilename)) {
+            keys.asMap().remove(bookId, cached);
+            return null;
+        }
+        // null nếu entry vừa bị evict và xóa key material
+        return cached.toSecretKey();
+    }
+    
+    public void put(Long bookId, String keyFilename, SecretKey key) {
+        keys.put(bookId, new CachedKey(keyFilename, key.getEncoded(), key.getAlgorithm()));
+    }
+    
+    /**
+     * Gọi khi xóa sách hoặc xoay key
+     */
+    public void invalidate(Long bookId) {
+        keys.invalidate(bookId);
+    }
+    
+    private static final class CachedKey {
+        
+        private final String keyFilename;
+        private final byte[] material;
+        private final String algorithm;
+        private boolean destroyed;
+        
+        private CachedKey(String keyFilename, byte[] material, String algorithm) {
+            this.keyFilename = Objects.requireNonNull(keyFilename);
+            this.material = material;
+            this.algorithm = algorithm;
+        }
+        
+        synchronized SecretKey toSecretKey() {
+            return destroyed ? null : new SecretKeySpec(material, algorithm);
+        }
+        
+        synchronized void destroy() {
+            Arrays.fill(material, (byte) 0);
+            destroyed = true;
+        }
+    }
+}
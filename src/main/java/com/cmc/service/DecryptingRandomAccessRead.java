@@ -0,0 +1,142 @@
+package com.cmc.service;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PDF segmented mở cho PDFBox mà không giải mã ra đĩa: mỗi lần đọc chỉ giải mã (và xác thực)
+ * segment chứa vị trí đó. Một vài segment vừa dùng được giữ lại trong bộ nhớ vì parser
+ * thường nhảy qua lại giữa xref và các object gần nhau.
+ * Không thread-safe, giống các RandomAccessRead khác của PDFBox.
+ */
+class DecryptingRandomAccessRead implements RandomAccessRead {
+    
+    // 8 segment × 64 KB mặc định
+    private static final int CACHED_SEGMENTS = 8;
+    
+    private final EncryptionService encryptionService;
+    private final EncryptionService.SegmentedHeader header;
+    private final SecretKey aesKey;
+    private final FileChannel channel;
+    private final ByteBuffer ciphertext;
+    private final Map<Long, byte[]> segments = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHED_SEGMENTS;
+        }
+    };
+    private long position;
+    private boolean closed;
+    
+    DecryptingRandomAccessRead(EncryptionService encryptionService, Path encryptedFile,
+                               EncryptionService.SegmentedHeader header, SecretKey aesKey) throws IOException {
+        this.encryptionService = encryptionService;
+        this.header = header;
+        this.aesKey = aesKey;
+        this.channel = FileChannel.open(encryptedFile, StandardOpenOption.READ);
+        this.ciphertext = ByteBuffer.allocate(header.segmentSize() + EncryptionService.GCM_TAG_LENGTH);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (isEOF()) {
+            return -1;
+        }
+        byte[] segment = segment(position / header.segmentSize());
+        return segment[(int) (position++ % header.segmentSize())] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (isEOF()) {
+            return -1;
+        }
+        int total = 0;
+        while (total < len && position < header.plaintextLength()) {
+            byte[] segment = segment(position / header.segmentSize());
+            int offset = (int) (position % header.segmentSize());
+            int count = Math.min(len - total, segment.length - offset);
+            System.arraycopy(segment, offset, b, off + total, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+    
+    @Override
+    public long getPosition() throws IOException {
+        checkClosed();
+        return position;
+    }
+    
+    @Override
+    public void seek(long position) throws IOException {
+        checkClosed();
+        if (position < 0) {
+            throw new IOException("Invalid position " + position);
+        }
+        this.position = Math.min(position, header.plaintextLength());
+    }
+    
+    @Override
+    public long length() throws IOException {
+        checkClosed();
+        return header.plaintextLength();
+    }
+    
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    @Override
+    public boolean isEOF() throws IOException {
+        checkClosed();
+        return position >= header.plaintextLength();
+    }
+    
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+        checkClosed();
+        return new RandomAccessReadView(this, startPosition, streamLength);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            segments.clear();
+            channel.close();
+        }
+    }
+    
+    private byte[] segment(long index) throws IOException {
+        byte[] segment = segments.get(index);
+        if (segment == null) {
+            byte[] plaintext = new byte[header.segmentSize()];
+            int length = encryptionService.decryptSegment(channel, header, aesKey, index, ciphertext, plaintext);
+            segment = length == plaintext.length ? plaintext : Arrays.copyOf(plaintext, length);
+            segments.put(index, segment);
+        }
+        return segment;
+    }
+    
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("RandomAccessRead already closed");
+        }
+    }
+}
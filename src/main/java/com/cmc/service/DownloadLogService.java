@@ -0,0 +1,57 @@
+package com.cmc.service;
+
+import com.cmc.entity.DownloadLog;
+import com.cmc.entity.DownloadType;
+import com.cmc.entity.User;
+import com.cmc.repository.BookRepository;
+import com.cmc.repository.DownloadLogRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ghi log xem trang / tải PDF trong transaction riêng, ngắn.
+ * Đường phục vụ ảnh và PDF chạy ngoài transaction nên connection chỉ bị giữ trong lúc insert log,
+ * không kéo dài qua việc đọc file, giải mã và stream response.
+ */
+@Service
+@RequiredArgsConstructor
+public class DownloadLogService {
+    
+    private final DownloadLogRepository downloadLogRepository;
+    private final BookRepository bookRepository;
+    
+    /**
+     * Log xem các trang [pageFrom, pageTo], một lượt xem nhiều trang chỉ ghi một log
+     */
+    @Transactional
+    public void logPageView(User user, BookDescriptor book, int pageFrom, int pageTo) {
+        DownloadLog log = newLog(user, book, DownloadType.IMAGE_VIEW);
+        log.setPageFrom(pageFrom);
+        log.setPageTo(pageTo);
+        downloadLogRepository.save(log);
+    }
+    
+    /**
+     * Log tải PDF
+     */
+    @Transactional
+    public void logDownload(User user, BookDescriptor book, String userIp, String userAgent) {
+        DownloadLog log = newLog(user, book, DownloadType.PDF_DOWNLOAD);
+        log.setUserIp(userIp);
+        log.setUserAgent(userAgent);
+        downloadLogRepository.save(log);
+    }
+    
+    private DownloadLog newLog(User user, BookDescriptor book, DownloadType type) {
+        DownloadLog log = new DownloadLog();
+        log.setUser(user);
+        // Proxy theo id, không truy vấn bảng books
+        log.setBook(bookRepository.getReferenceById(book.getId()));
+        log.setDownloadType(type);
+        log.setDownloadTime(LocalDateTime.now());
+        return log;
+    }
+}
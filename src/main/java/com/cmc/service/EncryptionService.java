@@ -9,9 +9,12 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
@@ -25,7 +28,17 @@ public class EncryptionService {
     private static final String RSA_ALGORITHM = "RSA";
     private static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWITHSHA-256ANDMGF1PADDING";
     private static final int GCM_IV_LENGTH = 12;
-    private static final int GCM_TAG_LENGTH = 16;
+    static final int GCM_TAG_LENGTH = 16;
+    
+    // Định dạng segmented: header | segment 0 | segment 1 | ... mỗi segment = ciphertext + tag GCM
+    // Header .pdf.enc: magic (4) | segmentSize (4) | plaintextLength (8) | noncePrefix (8)
+    // Sách mới dùng container .book (xem BookContainer) với cùng cách chia segment
+    private static final int SEGMENTED_MAGIC = 0x4F4C5331; // "OLS1"
+    static final int NONCE_PREFIX_LENGTH = 8;
+    public static final int SEGMENTED_HEADER_LENGTH = 4 + 4 + 8 + NONCE_PREFIX_LENGTH;
+    
+    @Value("${encryption.segment-size:65536}")
+    private int segmentSize;
     
     @Value("${encryption.rsa.public-key-file}")
     private String publicKeyFile;
@@ -42,12 +55,20 @@ public class EncryptionService {
     @Value("${storage.keys-path}")
     private String keysPath;
     
-    private KeyPair rsaKeyPair;
+    private volatile KeyPair rsaKeyPair;
+    
+    // DRBG dùng chung: seed một lần rồi không bao giờ chặn chờ entropy như getInstanceStrong()
+    private final SecureRandom secureRandom = createSecureRandom();
+    
+    // Cipher/KeyGenerator không thread-safe nên mỗi thread giữ một instance, tránh lookup provider mỗi lần gọi
+    private final ThreadLocal<Cipher> aesCipher = ThreadLocal.withInitial(() -> newCipher(AES_TRANSFORMATION));
+    private final ThreadLocal<Cipher> rsaCipher = ThreadLocal.withInitial(() -> newCipher(RSA_TRANSFORMATION));
+    private final ThreadLocal<KeyGenerator> aesKeyGenerator = ThreadLocal.withInitial(this::newAESKeyGenerator);
     
     /**
      * Khởi tạo hoặc tải RSA key pair
      */
-    public void initializeKeys() throws Exception {
+    public synchronized void initializeKeys() throws Exception {
         Path keysDir = Paths.get(keysPath);
         if (!Files.exists(keysDir)) {
             Files.createDirectories(keysDir);
@@ -68,21 +89,19 @@ public class EncryptionService {
     /**
      * Tạo AES key ngẫu nhiên
      */
-    public SecretKey generateAESKey() throws NoSuchAlgorithmException {
-        KeyGenerator keyGenerator = KeyGenerator.getInstance(AES_ALGORITHM);
-        keyGenerator.init(aesKeySize);
-        return keyGenerator.generateKey();
+    public SecretKey generateAESKey() {
+        return aesKeyGenerator.get().generateKey();
     }
     
     /**
      * Mã hóa file PDF bằng AES-GCM
      */
     public EncryptionResult encryptPDF(byte[] pdfData, SecretKey aesKey) throws Exception {
-        Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+        Cipher cipher = aesCipher.get();
         
         // Tạo IV ngẫu nhiên
         byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom.getInstanceStrong().nextBytes(iv);
+        secureRandom.nextBytes(iv);
         
         GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
         cipher.init(Cipher.ENCRYPT_MODE, aesKey, gcmParameterSpec);
@@ -92,11 +111,136 @@ public class EncryptionService {
         return new EncryptionResult(encryptedData, iv, cipher.getIV());
     }
     
+    /**
+     * Tham số segment cho một file mới: nonce prefix ngẫu nhiên, segment đầu tiên bắt đầu tại dataOffset
+     */
+    public SegmentedHeader newSegmentedHeader(long plaintextLength, long dataOffset) {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        secureRandom.nextBytes(noncePrefix);
+        return new SegmentedHeader(segmentSize, plaintextLength, noncePrefix, dataOffset);
+    }
+    
+    /**
+     * Mã hóa PDF thành các segment độc lập (streaming, bộ nhớ cố định), ghi ngay sau header do caller ghi.
+     * Mỗi segment dùng nonce = noncePrefix || index, AAD = index || cờ segment cuối,
+     * nên không thể đổi thứ tự, bỏ bớt hay cắt cụt segment mà không bị phát hiện.
+     */
+    public void encryptSegmented(InputStream in, OutputStream out, SegmentedHeader header,
+                                 SecretKey aesKey) throws IOException {
+        Cipher cipher = aesCipher.get();
+        byte[] plaintext = new byte[header.segmentSize()];
+        byte[] ciphertext = new byte[header.segmentSize() + GCM_TAG_LENGTH];
+        
+        long segmentCount = header.segmentCount();
+        for (long index = 0; index < segmentCount; index++) {
+            int length = header.plaintextSegmentLength(index);
+            if (in.readNBytes(plaintext, 0, length) != length) {
+                throw new IOException("Source file changed during encryption");
+            }
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, aesKey, header.segmentParameters(index));
+                cipher.updateAAD(header.segmentAad(index));
+                int written = cipher.doFinal(plaintext, 0, length, ciphertext, 0);
+                out.write(ciphertext, 0, written);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt segment " + index, e);
+            }
+        }
+    }
+    
+    /**
+     * Đọc header nếu file .pdf.enc ở định dạng segmented (trước khi có container .book),
+     * trả về null với file cũ (một khối GCM)
+     */
+    public SegmentedHeader readSegmentedHeader(Path encryptedFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(encryptedFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENTED_HEADER_LENGTH);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // đọc đủ header
+            }
+            buffer.flip();
+            if (buffer.remaining() < SEGMENTED_HEADER_LENGTH || buffer.getInt() != SEGMENTED_MAGIC) {
+                return null;
+            }
+            int size = buffer.getInt();
+            long plaintextLength = buffer.getLong();
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            buffer.get(noncePrefix);
+            return new SegmentedHeader(size, plaintextLength, noncePrefix, SEGMENTED_HEADER_LENGTH);
+        }
+    }
+    
+    /**
+     * Giải mã file segmented ra output, từng segment một (bộ nhớ cố định)
+     */
+    public void decryptSegmented(Path encryptedFile, SegmentedHeader header, SecretKey aesKey,
+                                 OutputStream out) throws IOException {
+        decryptSegmented(encryptedFile, header, aesKey, out, 0, header.plaintextLength() - 1);
+    }
+    
+    /**
+     * Giải mã đoạn plaintext [start, end] (tính cả end), chỉ đọc và giải mã các segment chứa đoạn đó
+     */
+    public void decryptSegmented(Path encryptedFile, SegmentedHeader header, SecretKey aesKey,
+                                 OutputStream out, long start, long end) throws IOException {
+        if (start > end) {
+            // PDF rỗng: vẫn xác thực segment duy nhất
+            start = 0;
+            end = -1;
+        }
+        
+        ByteBuffer ciphertext = ByteBuffer.allocate(header.segmentSize() + GCM_TAG_LENGTH);
+        byte[] plaintext = new byte[header.segmentSize()];
+        long firstSegment = start / header.segmentSize();
+        long lastSegment = end < 0 ? 0 : end / header.segmentSize();
+        
+        try (FileChannel channel = FileChannel.open(encryptedFile, StandardOpenOption.READ)) {
+            for (long index = firstSegment; index <= lastSegment; index++) {
+                int decrypted = decryptSegment(channel, header, aesKey, index, ciphertext, plaintext);
+                
+                // Chỉ ghi phần của segment nằm trong đoạn yêu cầu
+                long segmentStart = index * header.segmentSize();
+                int from = (int) Math.max(0, start - segmentStart);
+                int to = (int) Math.min(decrypted, end - segmentStart + 1);
+                if (to > from) {
+                    out.write(plaintext, from, to - from);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Đọc và giải mã một segment vào plaintext, trả về số byte plaintext.
+     * ciphertext là buffer tạm, cần tối thiểu segmentSize + 16 byte.
+     */
+    int decryptSegment(FileChannel channel, SegmentedHeader header, SecretKey aesKey, long index,
+                       ByteBuffer ciphertext, byte[] plaintext) throws IOException {
+        int length = header.plaintextSegmentLength(index) + GCM_TAG_LENGTH;
+        long position = header.segmentOffset(index);
+        ciphertext.clear().limit(length);
+        while (ciphertext.hasRemaining()) {
+            int read = channel.read(ciphertext, position);
+            if (read < 0) {
+                throw new IOException("Encrypted file is truncated");
+            }
+            position += read;
+        }
+        
+        try {
+            Cipher cipher = aesCipher.get();
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, header.segmentParameters(index));
+            cipher.updateAAD(header.segmentAad(index));
+            return cipher.doFinal(ciphertext.array(), 0, length, plaintext, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt segment " + index, e);
+        }
+    }
+    
     /**
      * Giải mã file PDF bằng AES-GCM
      */
     public byte[] decryptPDF(byte[] encryptedData, SecretKey aesKey, byte[] iv) throws Exception {
-        Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+        Cipher cipher = aesCipher.get();
         GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
         cipher.init(Cipher.DECRYPT_MODE, aesKey, gcmParameterSpec);
         
@@ -107,12 +251,8 @@ public class EncryptionService {
      * Mã hóa AES key bằng RSA public key
      */
     public byte[] encryptAESKey(SecretKey aesKey) throws Exception {
-        if (rsaKeyPair == null) {
-            initializeKeys();
-        }
-        
-        Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, rsaKeyPair.getPublic());
+        Cipher cipher = rsaCipher.get();
+        cipher.init(Cipher.ENCRYPT_MODE, rsaKeyPair().getPublic());
         
         return cipher.doFinal(aesKey.getEncoded());
     }
@@ -121,17 +261,56 @@ public class EncryptionService {
      * Giải mã AES key bằng RSA private key
      */
     public SecretKey decryptAESKey(byte[] encryptedAESKey) throws Exception {
-        if (rsaKeyPair == null) {
-            initializeKeys();
-        }
-        
-        Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
-        cipher.init(Cipher.DECRYPT_MODE, rsaKeyPair.getPrivate());
+        Cipher cipher = rsaCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE, rsaKeyPair().getPrivate());
         
         byte[] decryptedKeyBytes = cipher.doFinal(encryptedAESKey);
         return new SecretKeySpec(decryptedKeyBytes, AES_ALGORITHM);
     }
     
+    /**
+     * RSA key pair, khởi tạo đúng một lần kể cả khi nhiều thread gọi cùng lúc
+     */
+    private KeyPair rsaKeyPair() throws Exception {
+        KeyPair keyPair = rsaKeyPair;
+        if (keyPair == null) {
+            synchronized (this) {
+                if (rsaKeyPair == null) {
+                    initializeKeys();
+                }
+                keyPair = rsaKeyPair;
+            }
+        }
+        return keyPair;
+    }
+    
+    private static SecureRandom createSecureRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("DRBG SecureRandom is not available", e);
+        }
+    }
+    
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher " + transformation + " is not available", e);
+        }
+    }
+    
+    private KeyGenerator newAESKeyGenerator() {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(AES_ALGORITHM);
+            keyGenerator.init(aesKeySize, secureRandom);
+            return keyGenerator;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES KeyGenerator is not available", e);
+        }
+    }
+    
     /**
      * Tạo và lưu RSA key pair mới
      */
@@ -180,6 +359,50 @@ public class EncryptionService {
         rsaKeyPair = new KeyPair(publicKey, privateKey);
     }
     
+    /**
+     * Header của file segmented
+     */
+    public record SegmentedHeader(int segmentSize, long plaintextLength, byte[] noncePrefix, long dataOffset) {
+        
+        public long segmentCount() {
+            // File rỗng vẫn có một segment (rỗng) để có tag xác thực
+            return Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        }
+        
+        public int plaintextSegmentLength(long index) {
+            return (int) Math.min(segmentSize, plaintextLength - index * segmentSize);
+        }
+        
+        /**
+         * Vị trí bắt đầu của segment trong file mã hóa
+         */
+        public long segmentOffset(long index) {
+            return dataOffset + index * (segmentSize + (long) GCM_TAG_LENGTH);
+        }
+        
+        GCMParameterSpec segmentParameters(long index) {
+            byte[] nonce = ByteBuffer.allocate(GCM_IV_LENGTH)
+                    .put(noncePrefix)
+                    .putInt((int) index)
+                    .array();
+            return new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
+        }
+        
+        byte[] segmentAad(long index) {
+            return ByteBuffer.allocate(5)
+                    .putInt((int) index)
+                    .put((byte) (index == segmentCount() - 1 ? 1 : 0))
+                    .array();
+        }
+        
+        /**
+         * Cùng segment (nonce, AAD không phụ thuộc vị trí) nhưng nằm ở offset khác trong file
+         */
+        public SegmentedHeader withDataOffset(long offset) {
+            return new SegmentedHeader(segmentSize, plaintextLength, noncePrefix, offset);
+        }
+    }
+    
     /**
      * Kết quả mã hóa
      */
@@ -1,190 +1,327 @@
 package com.cmc.service;
 
-import com.cmc.entity.User;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 @Service
+@RequiredArgsConstructor
 public class PDFProcessingService {
     
-    @Value("${watermark.font-size}")
-    private int watermarkFontSize;
+    // Số trang tối thiểu cho mỗi worker, tránh parse lại PDF cho tài liệu nhỏ
+    private static final int MIN_PAGES_PER_WORKER = 4;
     
-    @Value("${watermark.opacity}")
-    private float watermarkOpacity;
+    // DPI mặc định của ảnh trang
+    static final float PAGE_DPI = 150;
+    
+    private final ThreadPoolTaskExecutor pageRenderExecutor;
+    private final RenderingGovernor renderingGovernor;
     
     @Value("${storage.books-path}")
     private String booksPath;
     
+    // Số trang render ngay khi upload, -1 = tất cả; các trang còn lại render khi được xem lần đầu
+    @Value("${rendering.eager-pages:-1}")
+    private int eagerPages;
+    
     /**
-     * Convert PDF thành danh sách ảnh với watermark
+     * Xử lý PDF upload chỉ với một lần parse: validate, đếm trang, lấy kích thước
+     * từng trang và render ảnh đều dùng chung PDDocument đã mở.
+     * Worker render phụ (nếu có) vẫn mở PDDocument riêng vì PDFRenderer không thread-safe.
      */
-    public List<String> convertPDFToImages(byte[] pdfData, String bookId, User user) throws IOException {
-        List<String> imageFiles = new ArrayList<>();
-        
-        // Tạo thư mục cho ảnh
-        Path imagesDir = Paths.get(booksPath, bookId + "_images");
-        if (!Files.exists(imagesDir)) {
-            Files.createDirectories(imagesDir);
+    public IngestionResult ingestPDF(Path pdfFile, String bookId,
+                                     IngestionListener listener) throws IOException {
+        PDDocument document;
+        try {
+            document = openDocument(pdfFile);
+        } catch (IOException e) {
+            return IngestionResult.invalid();
         }
         
-        try (PDDocument document = Loader.loadPDF(pdfData)) {
-            PDFRenderer pdfRenderer = new PDFRenderer(document);
+        try (document) {
             int pageCount = document.getNumberOfPages();
+            if (pageCount <= 0) {
+                return IngestionResult.invalid();
+            }
             
-            for (int page = 0; page < pageCount; page++) {
-                // Render trang thành ảnh
-                BufferedImage image = pdfRenderer.renderImageWithDPI(page, 150, ImageType.RGB);
-                
-                // Thêm watermark
-                BufferedImage watermarkedImage = addWatermark(image, user);
-                
-                // Lưu ảnh
-                String fileName = String.format("page_%03d.jpg", page + 1);
-                Path imagePath = imagesDir.resolve(fileName);
-                ImageIO.write(watermarkedImage, "JPEG", imagePath.toFile());
-                
-                imageFiles.add(fileName);
+            List<PageSize> pageSizes = new ArrayList<>(pageCount);
+            for (PDPage page : document.getPages()) {
+                pageSizes.add(PageSize.of(page));
             }
+            listener.onValidated(pageCount);
+            
+            Path imagesDir = createImagesDir(bookId);
+            renderDocument(document, () -> openDocument(pdfFile), eagerPageLimit(pageCount),
+                    imagesDir, new PageProgress(listener::onPageRendered));
+            
+            return new IngestionResult(true, pageCount, pageSizes);
         }
-        
-        return imageFiles;
+    }
+    
+    private Path createImagesDir(String bookId) throws IOException {
+        // Tạo thư mục cho ảnh gốc
+        Path imagesDir = Paths.get(booksPath, bookId + "_images", BookStorageService.BASE_IMAGES_FOLDER);
+        if (!Files.exists(imagesDir)) {
+            Files.createDirectories(imagesDir);
+        }
+        return imagesDir;
     }
     
     /**
-     * Thêm watermark cá nhân lên ảnh
+     * Số trang render lúc upload
      */
-    private BufferedImage addWatermark(BufferedImage originalImage, User user) {
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight();
-        
-        // Tạo ảnh mới với watermark
-        BufferedImage watermarkedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = watermarkedImage.createGraphics();
-        
-        // Vẽ ảnh gốc
-        g2d.drawImage(originalImage, 0, 0, null);
-        
-        // Cấu hình cho watermark
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        // Tạo nội dung watermark
-        String watermarkText = createWatermarkText(user);
-        
-        // Cấu hình font và màu
-        Font font = new Font("Arial", Font.BOLD, watermarkFontSize);
-        g2d.setFont(font);
-        
-        // Tạo màu với độ trong suốt
-        Color watermarkColor = new Color(128, 128, 128, (int)(255 * watermarkOpacity));
-        g2d.setColor(watermarkColor);
-        
-        // Vẽ watermark ở góc dưới bên trái
-        FontMetrics fontMetrics = g2d.getFontMetrics();
-        int textWidth = fontMetrics.stringWidth(watermarkText);
-        int textHeight = fontMetrics.getHeight();
-        
-        int x = 10; // Margin từ bên trái
-        int y = height - 10; // Margin từ dưới lên
-        
-        // Vẽ background cho text (tùy chọn)
-        g2d.setColor(new Color(255, 255, 255, (int)(255 * watermarkOpacity * 0.8)));
-        g2d.fillRect(x - 5, y - textHeight + 5, textWidth + 10, textHeight);
-        
-        // Vẽ text
-        g2d.setColor(watermarkColor);
-        g2d.drawString(watermarkText, x, y);
+    public int eagerPageLimit(int pageCount) {
+        return eagerPages < 0 ? pageCount : Math.min(eagerPages, pageCount);
+    }
+    
+    /**
+     * Render pageCount trang đầu: thread hiện tại dùng document đã mở,
+     * worker phụ mở document riêng từ source
+     */
+    private void renderDocument(PDDocument document, DocumentSource source, int pageCount,
+                                        Path imagesDir, PageProgress progress) throws IOException {
+        int workers = Math.min(pageRenderExecutor.getMaxPoolSize(),
+                Math.max(1, pageCount / MIN_PAGES_PER_WORKER));
+        AtomicInteger nextPage = new AtomicInteger();
         
-        // Vẽ thêm watermark nhỏ ở các vị trí khác (tùy chọn)
-        addAdditionalWatermarks(g2d, user, width, height);
+        // Worker phụ tự load PDDocument riêng
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < workers; i++) {
+            futures.add(pageRenderExecutor.submit(() -> {
+                if (nextPage.get() >= pageCount) {
+                    // Đã hết trang hoặc đã lỗi trước khi worker được chạy
+                    return null;
+                }
+                try (PDDocument workerDocument = source.open()) {
+                    renderPages(workerDocument, nextPage, pageCount, imagesDir, progress);
+                }
+                return null;
+            }));
+        }
         
-        g2d.dispose();
-        return watermarkedImage;
+        // Thread hiện tại cũng render với document đã mở
+        try {
+            renderPages(document, nextPage, pageCount, imagesDir, progress);
+            awaitWorkers(futures);
+        } catch (IOException | RuntimeException e) {
+            // Worker dừng sau trang đang render. Chờ tất cả kết thúc (không cancel: future bị cancel trả về ngay
+            // dù thread vẫn chạy) để không còn ảnh được ghi vào thư mục đã bị dọn và document được đóng
+            nextPage.set(pageCount);
+            awaitWorkersQuietly(futures);
+            throw e;
+        }
     }
     
     /**
-     * Tạo nội dung watermark
+     * Render các trang lấy từ bộ đếm chung cho tới khi hết trang
      */
-    private String createWatermarkText(User user) {
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    private void renderPages(PDDocument document, AtomicInteger nextPage, int pageCount, Path imagesDir,
+                             PageProgress progress) throws IOException {
+        PDFRenderer pdfRenderer = new PDFRenderer(document);
         
-        return String.format("%s | %s | %s", 
-                user.getEmail(), 
-                user.getFullName() != null ? user.getFullName() : user.getUsername(),
-                now.format(formatter));
+        int page;
+        while ((page = nextPage.getAndIncrement()) < pageCount) {
+            renderPage(document, pdfRenderer, page, imagesDir);
+            progress.pageRendered();
+        }
     }
     
     /**
-     * Thêm watermark nhỏ ở các vị trí khác
+     * Render một trang (pageIndex bắt đầu từ 0) từ document đã mở
      */
-    private void addAdditionalWatermarks(Graphics2D g2d, User user, int width, int height) {
-        Font smallFont = new Font("Arial", Font.PLAIN, watermarkFontSize - 2);
-        g2d.setFont(smallFont);
-        
-        Color lightColor = new Color(128, 128, 128, (int)(255 * watermarkOpacity * 0.3));
-        g2d.setColor(lightColor);
-        
-        String shortText = user.getEmail();
-        FontMetrics fm = g2d.getFontMetrics();
-        
-        // Watermark ở góc trên phải
-        int x = width - fm.stringWidth(shortText) - 10;
-        int y = 20;
-        g2d.drawString(shortText, x, y);
-        
-        // Watermark ở giữa trang (mờ hơn)
-        Color veryLightColor = new Color(128, 128, 128, (int)(255 * watermarkOpacity * 0.1));
-        g2d.setColor(veryLightColor);
+    public Path renderPage(PDDocument document, int pageIndex, Path imagesDir) throws IOException {
+        if (!Files.exists(imagesDir)) {
+            Files.createDirectories(imagesDir);
+        }
+        return renderPage(document, new PDFRenderer(document), pageIndex, imagesDir);
+    }
+    
+    private Path renderPage(PDDocument document, PDFRenderer pdfRenderer, int pageIndex,
+                            Path imagesDir) throws IOException {
+        // Giảm DPI cho trang quá khổ và chờ đủ ngân sách bộ nhớ trước khi cấp phát raster
+        PDPage page = document.getPage(pageIndex);
+        float dpi = renderingGovernor.dpiFor(page, PAGE_DPI);
         
-        Font centerFont = new Font("Arial", Font.BOLD, watermarkFontSize + 10);
-        g2d.setFont(centerFont);
-        fm = g2d.getFontMetrics();
+        Path imagePath = imagesDir.resolve(BookStorageService.pageFileName(pageIndex + 1));
+        Path partialPath = imagesDir.resolve(imagePath.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        RenderingGovernor.Permit permit = renderingGovernor.acquire(page, dpi);
+        try {
+            // Render trang thành ảnh gốc, watermark được thêm khi trả ảnh cho từng người xem
+            BufferedImage image = pdfRenderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+            
+            // Ghi ra file tạm rồi rename, người đọc không bao giờ thấy file ghi dở
+            ImageIO.write(image, "JPEG", partialPath.toFile());
+            Files.move(partialPath, imagePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            permit.close();
+            Files.deleteIfExists(partialPath);
+        }
+        return imagePath;
+    }
+    
+    /**
+     * Chờ các worker phụ hoàn thành, ném lại lỗi đầu tiên
+     */
+    private void awaitWorkers(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Page rendering interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException("Page rendering failed: " + cause.getMessage(), cause);
+            }
+        }
+    }
+    
+    /**
+     * Chờ các worker phụ dừng hẳn sau khi đã có lỗi, bỏ qua lỗi của chúng
+     */
+    private void awaitWorkersQuietly(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Worker dừng sau tối đa một trang, vẫn chờ rồi khôi phục trạng thái interrupt
+                    interrupted = true;
+                } catch (CancellationException | ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Nguồn để mỗi worker mở PDDocument riêng
+     */
+    @FunctionalInterface
+    private interface DocumentSource {
+        PDDocument open() throws IOException;
+    }
+    
+    /**
+     * Mở PDF từ file qua RandomAccessReadBufferedFile, stream cache giới hạn heap
+     * và ghi phần vượt quá ra scratch file nên heap không tăng theo kích thước PDF
+     */
+    public PDDocument openDocument(Path pdfFile) throws IOException {
+        return Loader.loadPDF(pdfFile.toFile(), renderingGovernor.streamCache());
+    }
+    
+    /**
+     * Mở PDF từ nguồn đọc ngẫu nhiên bất kỳ (vd. PDF mã hóa giải mã theo segment), đóng source khi đóng document
+     */
+    public PDDocument openDocument(RandomAccessRead source) throws IOException {
+        try {
+            return Loader.loadPDF(source, renderingGovernor.streamCache());
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Đếm số trang đã render xong giữa các worker
+     */
+    private static class PageProgress {
+        private final AtomicInteger rendered = new AtomicInteger();
+        private final IntConsumer listener;
         
-        String centerText = user.getUsername().toUpperCase();
-        x = (width - fm.stringWidth(centerText)) / 2;
-        y = height / 2;
+        PageProgress(IntConsumer listener) {
+            this.listener = listener;
+        }
         
-        // Xoay text 45 độ
-        g2d.rotate(Math.toRadians(-45), x, y);
-        g2d.drawString(centerText, x, y);
-        g2d.rotate(Math.toRadians(45), x, y); // Xoay lại
+        void pageRendered() {
+            listener.accept(rendered.incrementAndGet());
+        }
     }
     
     /**
-     * Lấy tổng số trang của PDF
+     * Nhận thông báo tiến độ khi xử lý PDF upload
      */
-    public int getPDFPageCount(byte[] pdfData) throws IOException {
-        try (PDDocument document = Loader.loadPDF(pdfData)) {
-            return document.getNumberOfPages();
+    public interface IngestionListener {
+        default void onValidated(int pageCount) { }
+        default void onPageRendered(int renderedPages) { }
+    }
+    
+    /**
+     * Kích thước trang PDF (đơn vị point, 1/72 inch), đã tính rotation
+     */
+    public static class PageSize {
+        private final float width;
+        private final float height;
+        
+        public PageSize(float width, float height) {
+            this.width = width;
+            this.height = height;
+        }
+        
+        static PageSize of(PDPage page) {
+            PDRectangle cropBox = page.getCropBox();
+            int rotation = page.getRotation();
+            if (rotation == 90 || rotation == 270) {
+                return new PageSize(cropBox.getHeight(), cropBox.getWidth());
+            }
+            return new PageSize(cropBox.getWidth(), cropBox.getHeight());
         }
+        
+        public float getWidth() { return width; }
+        public float getHeight() { return height; }
     }
     
     /**
-     * Validate file PDF
+     * Kết quả xử lý PDF upload
      */
-    public boolean isValidPDF(byte[] data) {
-        try (PDDocument document = Loader.loadPDF(data)) {
-            return document.getNumberOfPages() > 0;
-        } catch (Exception e) {
-            return false;
+    public static class IngestionResult {
+        private final boolean valid;
+        private final int pageCount;
+        private final List<PageSize> pageSizes;
+        
+        public IngestionResult(boolean valid, int pageCount, List<PageSize> pageSizes) {
+            this.valid = valid;
+            this.pageCount = pageCount;
+            this.pageSizes = pageSizes;
         }
+        
+        static IngestionResult invalid() {
+            return new IngestionResult(false, 0, List.of());
+        }
+        
+        public boolean isValid() { return valid; }
+        public int getPageCount() { return pageCount; }
+        public List<PageSize> getPageSizes() { return pageSizes; }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.cmc.service;
+
+import com.cmc.entity.ImageTier;
+import com.cmc.entity.User;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Nhiều trang liên tiếp của một sách trả về trong một response multipart/mixed.
+ * Quyền xem và log đã xử lý một lần khi tạo batch; từng trang chỉ được render/watermark
+ * khi ghi ra stream, nên bộ nhớ chỉ giữ một ảnh tại một thời điểm.
+ */
+public class PageBatch {
+    
+    private static final byte[] CRLF = {'\r', '\n'};
+    
+    private final PageDerivativeService pageDerivativeService;
+    private final WatermarkService watermarkService;
+    private final BookDescriptor book;
+    private final int from;
+    private final int to;
+    private final ImageTier tier;
+    private final User user;
+    private final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    
+    PageBatch(PageDerivativeService pageDerivativeService, WatermarkService watermarkService,
+              BookDescriptor book, int from, int to, ImageTier tier, User user) {
+        this.pageDerivativeService = pageDerivativeService;
+        this.watermarkService = watermarkService;
+        this.book = book;
+        this.from = from;
+        this.to = to;
+        this.tier = tier;
+        this.user = user;
+    }
+    
+    public int getFrom() {
+        return from;
+    }
+    
+    public int getTo() {
+        return to;
+    }
+    
+    /**
+     * Boundary dùng trong Content-Type: multipart/mixed; boundary=...
+     */
+    public String getBoundary() {
+        return boundary;
+    }
+    
+    /**
+     * Ghi từng trang thành một part (Content-Type, Content-Length, Content-ID: &lt;page-N&gt;).
+     * Flush sau mỗi trang để client hiển thị được trang đầu trong khi trang sau đang render.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (int page = from; page <= to; page++) {
+            Path imagePath = pageDerivativeService.getPage(book, page, tier);
+            PageImage image = watermarkService.applyWatermark(imagePath, user);
+            
+            write(out, "--" + boundary);
+            out.write(CRLF);
+            write(out, "Content-Type: image/jpeg");
+            out.write(CRLF);
+            write(out, "Content-Length: " + image.getLength());
+            out.write(CRLF);
+            write(out, "Content-ID: <page-" + page + ">");
+            out.write(CRLF);
+            out.write(CRLF);
+            image.writeTo(out);
+            out.write(CRLF);
+            out.flush();
+        }
+        write(out, "--" + boundary + "--");
+        out.write(CRLF);
+    }
+    
+    private static void write(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+    }
+}
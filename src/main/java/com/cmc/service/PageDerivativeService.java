@@ -0,0 +1,173 @@
+package com.cmc.service;
+
+import com.cmc.entity.ImageTier;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Ảnh trang theo nhiều kích thước (thumbnail, small, medium).
+ * Derivative được resize từ ảnh gốc 150 DPI khi có request đầu tiên và lưu trong
+ * cache giới hạn theo tổng dung lượng; file bị xóa khi entry bị evict.
+ */
+@Service
+@Slf4j
+public class PageDerivativeService {
+    
+    private static final String DERIVATIVES_FOLDER = "derivatives";
+    
+    private final PageRenderService pageRenderService;
+    private final BookStorageService bookStorageService;
+    private final Cache<DerivativeKey, Path> derivatives;
+    
+    @Value("${images.derivative-quality:0.85}")
+    private float quality;
+    
+    public PageDerivativeService(PageRenderService pageRenderService,
+                                 BookStorageService bookStorageService,
+                                 @Value("${images.derivative-cache-size:268435456}") long cacheSize,
+                                 MeterRegistry meterRegistry) {
+        this.pageRenderService = pageRenderService;
+        this.bookStorageService = bookStorageService;
+        this.derivatives = Caffeine.newBuilder()
+                .maximumWeight(cacheSize)
+                .weigher((DerivativeKey key, Path path) -> fileWeight(path))
+                .removalListener((DerivativeKey key, Path path, RemovalCause cause) -> {
+                    if (path != null) {
+                        bookStorageService.deleteQuietly(path);
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, derivatives, "page.derivatives");
+        Gauge.builder("cache.resident.bytes", derivatives,
+                        cache -> cache.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .tag("cache", "page.derivatives")
+                .tag("storage", "disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Cache chỉ nằm trong bộ nhớ, derivative còn sót từ lần chạy trước không được quản lý nên xóa đi
+     */
+    @PostConstruct
+    public void clearStaleDerivatives() throws IOException {
+        Path dir = derivativesDir();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
+                 .filter(path -> !path.equals(dir))
+                 .forEach(bookStorageService::deleteQuietly);
+        }
+    }
+    
+    /**
+     * Lấy ảnh trang theo tier, render ảnh gốc / resize nếu chưa có (pageNumber bắt đầu từ 1)
+     */
+    public Path getPage(BookDescriptor book, int pageNumber, ImageTier tier) throws IOException {
+        if (tier.isFull()) {
+            return pageRenderService.getOrRenderPage(book, pageNumber);
+        }
+        
+        DerivativeKey key = new DerivativeKey(book.getImagesFolder(), pageNumber, tier);
+        Path path = derivatives.getIfPresent(key);
+        if (path != null && Files.exists(path)) {
+            return path;
+        }
+        if (path != null) {
+            derivatives.invalidate(key);
+        }
+        
+        try {
+            // Caffeine chỉ chạy một loader cho mỗi key, request đồng thời chờ kết quả
+            return derivatives.get(key, k -> {
+                try {
+                    return createDerivative(book, k);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Như getPage nhưng không chờ render ảnh gốc khi PDF của sách đang bận (dùng cho prefetch), null nếu bỏ qua
+     */
+    public Path prefetchPage(BookDescriptor book, int pageNumber, ImageTier tier) throws IOException {
+        Path master = pageRenderService.tryRenderPage(book, pageNumber);
+        if (master == null) {
+            return null;
+        }
+        return tier.isFull() ? master : getPage(book, pageNumber, tier);
+    }
+    
+    private Path createDerivative(BookDescriptor book, DerivativeKey key) throws IOException {
+        Path master = pageRenderService.getOrRenderPage(book, key.pageNumber());
+        
+        Path dir = derivativesDir().resolve(key.imagesFolder()).resolve(key.tier().name().toLowerCase());
+        Files.createDirectories(dir);
+        Path target = dir.resolve(BookStorageService.pageFileName(key.pageNumber()));
+        Path tempFile = Files.createTempFile(dir, "derivative_", ".tmp");
+        
+        try {
+            BufferedImage masterImage = ImageIO.read(master.toFile());
+            if (masterImage == null) {
+                throw new IOException("Unreadable page image: " + master.getFileName());
+            }
+            // Không phóng to: ảnh gốc hẹp hơn tier (trang khổ nhỏ, trang quá khổ bị giảm DPI) giữ chiều rộng gốc
+            int width = Math.min(key.tier().getWidth(), masterImage.getWidth());
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                Thumbnails.of(masterImage)
+                        .width(width)
+                        .keepAspectRatio(true)
+                        .outputFormat("jpg")
+                        .outputQuality(quality)
+                        .toOutputStream(out);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            bookStorageService.deleteQuietly(tempFile);
+        }
+        return target;
+    }
+    
+    private Path derivativesDir() throws IOException {
+        Path dir = bookStorageService.tempDir().resolve(DERIVATIVES_FOLDER);
+        if (!Files.exists(dir)) {
+            Files.createDirectories(dir);
+        }
+        return dir;
+    }
+    
+    private static int fileWeight(Path path) {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, Files.size(path));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    private record DerivativeKey(String imagesFolder, int pageNumber, ImageTier tier) {
+    }
+}
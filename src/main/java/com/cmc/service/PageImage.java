@@ -0,0 +1,78 @@
+package com.cmc.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Ảnh trang (JPEG) trả về cho client mà không đọc cả file vào heap.
+ * Ảnh nằm trên đĩa (ảnh sạch, thumbnail) được gửi thẳng từ file, qua sendfile khi server hỗ trợ;
+ * ảnh có watermark theo người xem chỉ tồn tại trong bộ nhớ, dùng lại buffer của encoder.
+ */
+public final class PageImage {
+    
+    private final Path file;
+    private final byte[] data;
+    private final long length;
+    private final long lastModified;
+    
+    private PageImage(Path file, byte[] data, long length, long lastModified) {
+        this.file = file;
+        this.data = data;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+    
+    /**
+     * Ảnh trên đĩa, kích thước và thời gian sửa lấy từ thuộc tính file (không đọc nội dung)
+     */
+    public static PageImage of(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new PageImage(file, null, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+    
+    /**
+     * Ảnh trong bộ nhớ, chỉ length byte đầu của data là ảnh
+     */
+    public static PageImage of(byte[] data, int length) {
+        return new PageImage(null, data, length, -1);
+    }
+    
+    /**
+     * File chứa ảnh, null nếu ảnh chỉ nằm trong bộ nhớ
+     */
+    public Path getFile() {
+        return file;
+    }
+    
+    public long getLength() {
+        return length;
+    }
+    
+    /**
+     * Thời gian sửa file (epoch millis), -1 với ảnh trong bộ nhớ
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    public void writeTo(OutputStream out) throws IOException {
+        if (data != null) {
+            out.write(data, 0, (int) length);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < length) {
+                position += channel.transferTo(position, length - position, target);
+            }
+        }
+    }
+}
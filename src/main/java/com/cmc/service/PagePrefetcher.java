@@ -0,0 +1,205 @@
+package com.cmc.service;
+
+import com.cmc.entity.ImageTier;
+import com.cmc.entity.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefetch trang kế tiếp khi người đọc lật trang tuần tự.
+ * Theo dõi từng (người đọc, sách, tier): sau vài trang liên tiếp thì render / resize / decode trước
+ * K trang tiếp theo vào cache. K tính theo tốc độ đọc: số trang người đọc sẽ tới trong khoảng lookahead.
+ * Prefetch chạy trên pool riêng ưu tiên thấp và không chờ PDF của sách khi đang có trang khác được render;
+ * metrics page.prefetch.pages cho biết bao nhiêu trang prefetch xong trước khi được xem (hit),
+ * xem khi chưa xong (late), bị bỏ qua (stale, rejected, busy).
+ * page.prefetch.accuracy = hit / issued.
+ */
+@Service
+@Slf4j
+public class PagePrefetcher {
+    
+    // Số lần lật trang liên tiếp trước khi bắt đầu prefetch
+    private static final int MIN_SEQUENTIAL_RUN = 2;
+    private static final double INTERVAL_SMOOTHING = 0.3;
+    
+    private final PageDerivativeService pageDerivativeService;
+    private final WatermarkService watermarkService;
+    private final ThreadPoolTaskExecutor pagePrefetchExecutor;
+    private final boolean enabled;
+    private final int maxPages;
+    private final long lookaheadMillis;
+    private final Cache<ReaderKey, ReadingState> readers;
+    
+    private final Counter issued;
+    private final Counter hits;
+    private final Counter late;
+    private final Counter stale;
+    private final Counter rejected;
+    private final Counter busy;
+    
+    public PagePrefetcher(PageDerivativeService pageDerivativeService,
+                          WatermarkService watermarkService,
+                          ThreadPoolTaskExecutor pagePrefetchExecutor,
+                          MeterRegistry meterRegistry,
+                          @Value("${prefetch.enabled:true}") boolean enabled,
+                          @Value("${prefetch.max-pages:8}") int maxPages,
+                          @Value("${prefetch.lookahead:10s}") Duration lookahead) {
+        this.pageDerivativeService = pageDerivativeService;
+        this.watermarkService = watermarkService;
+        this.pagePrefetchExecutor = pagePrefetchExecutor;
+        this.enabled = enabled;
+        this.maxPages = maxPages;
+        this.lookaheadMillis = lookahead.toMillis();
+        this.readers = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterAccess(Duration.ofMinutes(15))
+                .build();
+        
+        this.issued = outcome(meterRegistry, "issued");
+        this.hits = outcome(meterRegistry, "hit");
+        this.late = outcome(meterRegistry, "late");
+        this.stale = outcome(meterRegistry, "stale");
+        this.rejected = outcome(meterRegistry, "rejected");
+        this.busy = outcome(meterRegistry, "busy");
+        Counter issued = this.issued;
+        Counter hits = this.hits;
+        Gauge.builder("page.prefetch.accuracy", () -> issued.count() == 0 ? 0 : hits.count() / issued.count())
+                .description("Tỉ lệ trang prefetch được người đọc xem")
+                .register(meterRegistry);
+    }
+    
+    private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("page.prefetch.pages")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Ghi nhận một lượt xem trang và lên lịch prefetch nếu người đọc đang đọc tuần tự
+     */
+    public void onPageView(BookDescriptor book, int pageNumber, ImageTier tier, User user) {
+        if (!enabled || maxPages <= 0) {
+            return;
+        }
+        
+        ReadingState state = readers.get(new ReaderKey(user.getId(), book.getId(), tier), key -> new ReadingState());
+        int from;
+        int to;
+        synchronized (state) {
+            if (state.prefetched.get(pageNumber)) {
+                (state.warmed.get(pageNumber) ? hits : late).increment();
+                state.prefetched.clear(pageNumber);
+                state.warmed.clear(pageNumber);
+            }
+            
+            long now = System.nanoTime();
+            if (pageNumber == state.lastPage + 1) {
+                long interval = TimeUnit.NANOSECONDS.toMillis(now - state.lastViewAt);
+                state.averageInterval = state.sequentialRun == 0
+                        ? interval
+                        : (long) (INTERVAL_SMOOTHING * interval + (1 - INTERVAL_SMOOTHING) * state.averageInterval);
+                state.sequentialRun++;
+            } else if (pageNumber != state.lastPage) {
+                // Nhảy trang: bỏ các trang đã prefetch phía trước
+                state.sequentialRun = 0;
+                state.prefetched.clear();
+                state.warmed.clear();
+                state.prefetchedUpTo = 0;
+            }
+            state.lastPage = pageNumber;
+            state.lastViewAt = now;
+            
+            if (state.sequentialRun < MIN_SEQUENTIAL_RUN) {
+                return;
+            }
+            from = Math.max(pageNumber + 1, state.prefetchedUpTo + 1);
+            to = Math.min(book.getTotalPages(), pageNumber + windowSize(state.averageInterval));
+            if (from > to) {
+                return;
+            }
+            state.prefetched.set(from, to + 1);
+            state.prefetchedUpTo = to;
+        }
+        
+        for (int page = from; page <= to; page++) {
+            schedule(book, page, tier, user, state);
+        }
+    }
+    
+    /**
+     * Số trang người đọc sẽ tới trong khoảng lookahead, tối thiểu 1, tối đa maxPages
+     */
+    private int windowSize(long averageIntervalMillis) {
+        long pages = lookaheadMillis / Math.max(1, averageIntervalMillis);
+        return (int) Math.max(1, Math.min(maxPages, pages));
+    }
+    
+    private void schedule(BookDescriptor book, int page, ImageTier tier, User user, ReadingState state) {
+        try {
+            pagePrefetchExecutor.execute(() -> prefetch(book, page, tier, user, state));
+            issued.increment();
+        } catch (TaskRejectedException e) {
+            // Pool đang bận, không prefetch
+            rejected.increment();
+            synchronized (state) {
+                state.prefetched.clear(page);
+            }
+        }
+    }
+    
+    private void prefetch(BookDescriptor book, int page, ImageTier tier, User user, ReadingState state) {
+        synchronized (state) {
+            if (!state.prefetched.get(page)) {
+                // Người đọc đã tới trang này hoặc đã nhảy đi chỗ khác
+                stale.increment();
+                return;
+            }
+        }
+        try {
+            Path image = pageDerivativeService.prefetchPage(book, page, tier);
+            if (image == null) {
+                // PDF đang render trang khác (thường là trang người đọc đang chờ), bỏ qua
+                busy.increment();
+                synchronized (state) {
+                    state.prefetched.clear(page);
+                }
+                return;
+            }
+            watermarkService.preload(image, user);
+            synchronized (state) {
+                if (state.prefetched.get(page)) {
+                    state.warmed.set(page);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Prefetch of page {} of book {} failed: {}", page, book.getId(), e.getMessage());
+        }
+    }
+    
+    private record ReaderKey(Long userId, Long bookId, ImageTier tier) {
+    }
+    
+    private static final class ReadingState {
+        private int lastPage = -1;
+        private long lastViewAt;
+        private long averageInterval;
+        private int sequentialRun;
+        private int prefetchedUpTo;
+        // Trang đã lên lịch prefetch / đã prefetch xong, chưa được xem
+        private final BitSet prefetched = new BitSet();
+        private final BitSet warmed = new BitSet();
+    }
+}
@@ -0,0 +1,258 @@
+package com.cmc.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Render trang sách theo yêu cầu (lazy rendering).
+ * Trang chưa có ảnh sẽ được render từ file mã hóa ở lần xem đầu tiên rồi lưu lại trong imagesFolder/base.
+ * Sách cũ (ảnh đã watermark sẵn nằm ngay trong imagesFolder) cũng được render lại ảnh gốc theo cách này.
+ * Nhiều request đồng thời cho cùng một trang chỉ dẫn tới một lần render.
+ * <p>
+ * PDF được mở trực tiếp trên file mã hóa (chỉ giải mã các segment PDFBox đọc tới, không ghi bản rõ ra đĩa)
+ * và giữ mở theo từng file trong rendering.source-idle, nên đọc tiếp các trang sau không phải parse lại PDF.
+ */
+@Service
+@Slf4j
+public class PageRenderService {
+    
+    private final PDFProcessingService pdfProcessingService;
+    private final BookStorageService bookStorageService;
+    private final BookManifestService bookManifestService;
+    
+    // Các trang đang được render, key là đường dẫn ảnh
+    private final ConcurrentMap<Path, CompletableFuture<Path>> inFlightRenders = new ConcurrentHashMap<>();
+    
+    // PDF đang mở, key là file mã hóa (sách trùng nội dung dùng chung)
+    private final Cache<String, RenderSource> sources;
+    
+    public PageRenderService(PDFProcessingService pdfProcessingService,
+                             BookStorageService bookStorageService,
+                             BookManifestService bookManifestService,
+                             MeterRegistry meterRegistry,
+                             @Value("${rendering.open-sources:8}") long openSources,
+                             @Value("${rendering.source-idle:2m}") Duration sourceIdle) {
+        this.pdfProcessingService = pdfProcessingService;
+        this.bookStorageService = bookStorageService;
+        this.bookManifestService = bookManifestService;
+        this.sources = Caffeine.newBuilder()
+                .maximumSize(openSources)
+                .expireAfterAccess(sourceIdle)
+                // Đóng PDF hết hạn ngay cả khi không có request nào chạm vào cache
+                .scheduler(Scheduler.systemScheduler())
+                .recordStats()
+                .removalListener((String file, RenderSource source, RemovalCause cause) -> {
+                    if (source != null) {
+                        source.close();
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sources, "rendering.sources");
+    }
+    
+    /**
+     * Lấy ảnh trang, render nếu chưa có (pageNumber bắt đầu từ 1)
+     */
+    public Path getOrRenderPage(BookDescriptor book, int pageNumber) throws IOException {
+        return render(book, pageNumber, true);
+    }
+    
+    /**
+     * Cho prefetch: chỉ render khi PDF của sách đang rảnh, null nếu trang chưa có và đang có render khác
+     * của sách đó. Request của người đọc không phải xếp hàng sau các trang prefetch.
+     */
+    public Path tryRenderPage(BookDescriptor book, int pageNumber) throws IOException {
+        return render(book, pageNumber, false);
+    }
+    
+    private Path render(BookDescriptor book, int pageNumber, boolean wait) throws IOException {
+        Path imagePath = bookStorageService.pageImagePath(book.getImagesFolder(), pageNumber);
+        while (true) {
+            if (Files.exists(imagePath)) {
+                return imagePath;
+            }
+            
+            CompletableFuture<Path> render = new CompletableFuture<>();
+            CompletableFuture<Path> existing = inFlightRenders.putIfAbsent(imagePath, render);
+            if (existing != null) {
+                // Đã có request khác đang render trang này
+                if (!wait) {
+                    return null;
+                }
+                Path rendered = await(existing);
+                if (rendered != null) {
+                    return rendered;
+                }
+                // Lượt prefetch giữ trang này đã bỏ qua vì PDF đang bận, tự render
+                continue;
+            }
+            
+            try {
+                Path result = Files.exists(imagePath) || renderFromEncryptedSource(book, pageNumber, wait)
+                        ? imagePath : null;
+                render.complete(result);
+                return result;
+            } catch (Exception e) {
+                render.completeExceptionally(e);
+                throw e instanceof IOException ioException ? ioException
+                        : new IOException("Failed to render page " + pageNumber + ": " + e.getMessage(), e);
+            } finally {
+                inFlightRenders.remove(imagePath, render);
+            }
+        }
+    }
+    
+    /**
+     * Render trang từ PDF đang mở của sách, false nếu không chờ và PDF đang bận
+     */
+    private boolean renderFromEncryptedSource(BookDescriptor book, int pageNumber, boolean wait) throws IOException {
+        long start = System.currentTimeMillis();
+        Path imagesDir = bookStorageService.baseImagesDir(book.getImagesFolder());
+        
+        // PDF vừa bị đóng (hết hạn, bị evict) giữa lúc lấy ra và lúc render thì mở lại
+        RenderOutcome outcome;
+        while ((outcome = source(book).render(pdfProcessingService, pageNumber - 1, imagesDir, wait))
+                == RenderOutcome.CLOSED) {
+            log.debug("Render source of book {} closed concurrently, reopening", book.getId());
+        }
+        if (outcome == RenderOutcome.BUSY) {
+            return false;
+        }
+        // Manifest chưa có bytes của trang này
+        bookManifestService.markStale(book.getImagesFolder());
+        
+        log.debug("Lazily rendered page {} of book {} in {} ms",
+                pageNumber, book.getId(), System.currentTimeMillis() - start);
+        return true;
+    }
+    
+    private RenderSource source(BookDescriptor book) throws IOException {
+        try {
+            return sources.get(book.getEncryptedFilename(), file -> open(book));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private RenderSource open(BookDescriptor book) {
+        try {
+            PdfContent pdf = bookStorageService.openPdf(book);
+            return new RenderSource(pdfProcessingService.openDocument(pdf.openRandomAccess()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (Exception e) {
+            throw new UncheckedIOException(new IOException("Failed to open PDF of book " + book.getId(), e));
+        }
+    }
+    
+    /**
+     * Xóa bản PDF đã giải mã (render_*.pdf) còn sót trong thư mục tạm từ phiên bản trước
+     */
+    @PostConstruct
+    void deleteDecryptedLeftovers() {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(bookStorageService.tempDir(), "render_*.pdf")) {
+            for (Path leftover : leftovers) {
+                bookStorageService.deleteQuietly(leftover);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean up decrypted render files: {}", e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    void closeSources() {
+        sources.invalidateAll();
+        sources.cleanUp();
+    }
+    
+    private Path await(CompletableFuture<Path> render) throws IOException {
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Failed to render page: " + cause.getMessage(), cause);
+        }
+    }
+    
+    private enum RenderOutcome {
+        RENDERED,
+        // PDF đã bị đóng, mở lại rồi thử lại
+        CLOSED,
+        // Đang có trang khác được render, không chờ
+        BUSY
+    }
+    
+    /**
+     * PDF đang mở của một file sách. PDDocument không thread-safe nên các trang
+     * của cùng một sách được render lần lượt; prefetch không chờ lock.
+     */
+    private static class RenderSource {
+        private final PDDocument document;
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean closed;
+        
+        RenderSource(PDDocument document) {
+            this.document = document;
+        }
+        
+        /**
+         * Render trang; wait = false thì bỏ qua ngay nếu đang có trang khác được render
+         */
+        RenderOutcome render(PDFProcessingService pdfProcessingService, int pageIndex, Path imagesDir,
+                             boolean wait) throws IOException {
+            if (wait) {
+                lock.lock();
+            } else if (!lock.tryLock()) {
+                return RenderOutcome.BUSY;
+            }
+            try {
+                if (closed) {
+                    return RenderOutcome.CLOSED;
+                }
+                pdfProcessingService.renderPage(document, pageIndex, imagesDir);
+                return RenderOutcome.RENDERED;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    document.close();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to close render source: {}", e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
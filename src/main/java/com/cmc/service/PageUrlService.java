@@ -0,0 +1,157 @@
+package com.cmc.service;
+
+import com.cmc.entity.ImageTier;
+import com.cmc.entity.User;
+import com.cmc.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * URL ảnh trang có chữ ký HMAC-SHA256, gắn với người xem, sách, trang, tier và thời điểm hết hạn.
+ * Quyền xem được kiểm tra một lần khi tạo phiên đọc; mỗi request ảnh sau đó chỉ cần một lần tính MAC,
+ * không parse JWT và không truy vấn DB (sách và người xem của phiên được giữ trong bộ nhớ tới khi URL hết hạn).
+ */
+@Service
+public class PageUrlService {
+    
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    
+    private final BookDescriptorCache bookDescriptorCache;
+    private final UserRepository userRepository;
+    private final SecretKeySpec macKey;
+    private final Duration ttl;
+    private final Cache<SessionKey, ReadingSession> sessions;
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::newMac);
+    
+    public PageUrlService(BookDescriptorCache bookDescriptorCache,
+                          UserRepository userRepository,
+                          MeterRegistry meterRegistry,
+                          @Value("${page-url.secret:${jwt.secret}}") String secret,
+                          @Value("${page-url.ttl:15m}") Duration ttl,
+                          @Value("${page-url.session-cache-size:10000}") long sessionCacheSize) {
+        this.bookDescriptorCache = bookDescriptorCache;
+        this.userRepository = userRepository;
+        this.ttl = ttl;
+        // Key riêng cho URL ảnh, suy ra từ secret để không dùng chung key với JWT
+        this.macKey = new SecretKeySpec(hmac(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM),
+                "page-url".getBytes(StandardCharsets.UTF_8)), MAC_ALGORITHM);
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(sessionCacheSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "page-url.sessions");
+    }
+    
+    /**
+     * Thời điểm hết hạn (epoch giây) cho URL tạo lúc này
+     */
+    public long newExpiry() {
+        return System.currentTimeMillis() / 1000 + ttl.toSeconds();
+    }
+    
+    /**
+     * Ghi nhớ sách và người xem của phiên đọc để phục vụ URL ký mà không truy vấn DB
+     */
+    public void openSession(BookDescriptor book, User viewer) {
+        sessions.put(new SessionKey(viewer.getId(), book.getId()), new ReadingSession(book, viewer));
+    }
+    
+    /**
+     * Sách và người xem của phiên đọc. Khi cache không còn (restart, bị evict) thì đọc lại từ DB,
+     * null nếu sách đã bị xóa hoặc người dùng bị khóa.
+     */
+    public ReadingSession getSession(Long userId, Long bookId) {
+        SessionKey key = new SessionKey(userId, bookId);
+        ReadingSession session = sessions.getIfPresent(key);
+        if (session != null) {
+            return session;
+        }
+        
+        BookDescriptor book = bookDescriptorCache.get(bookId).orElse(null);
+        User viewer = userRepository.findById(userId).filter(User::isEnabled).orElse(null);
+        if (book == null || viewer == null) {
+            return null;
+        }
+        session = new ReadingSession(book, viewer);
+        sessions.put(key, session);
+        return session;
+    }
+    
+    /**
+     * Xóa các phiên đọc của sách (khi sách bị xóa), URL đã cấp không còn dùng được
+     */
+    public void invalidateBook(Long bookId) {
+        sessions.asMap().keySet().removeIf(key -> key.bookId().equals(bookId));
+    }
+    
+    /**
+     * Chữ ký (base64url) cho một trang
+     */
+    public String sign(Long userId, Long bookId, int pageNumber, ImageTier tier, long expires) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(mac(userId, bookId, pageNumber, tier, expires));
+    }
+    
+    /**
+     * Kiểm tra chữ ký và hạn dùng của URL
+     */
+    public boolean verify(Long userId, Long bookId, int pageNumber, ImageTier tier, long expires, String signature) {
+        if (expires < System.currentTimeMillis() / 1000 || signature == null) {
+            return false;
+        }
+        byte[] provided;
+        try {
+            provided = Base64.getUrlDecoder().decode(signature);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(provided, mac(userId, bookId, pageNumber, tier, expires));
+    }
+    
+    private byte[] mac(Long userId, Long bookId, int pageNumber, ImageTier tier, long expires) {
+        String message = userId + ":" + bookId + ":" + pageNumber + ":" + tier.name() + ":" + expires;
+        return mac.get().doFinal(message.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(macKey);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to initialize page URL MAC", e);
+        }
+    }
+    
+    private static byte[] hmac(SecretKeySpec key, byte[] data) {
+        try {
+            Mac instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(key);
+            return instance.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to derive page URL key", e);
+        }
+    }
+    
+    /**
+     * Sách và người xem của một phiên đọc
+     */
+    public record ReadingSession(BookDescriptor book, User viewer) {
+    }
+    
+    private record SessionKey(Long userId, Long bookId) {
+    }
+}
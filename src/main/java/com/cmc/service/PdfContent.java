@@ -0,0 +1,102 @@
+package com.cmc.service;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * PDF gốc của sách, chỉ giải mã khi ghi ra stream.
+ * File segmented được giải mã từng segment (bộ nhớ cố định);
+ * file cũ (một khối GCM) phải giải mã cả file trong bộ nhớ.
+ */
+public class PdfContent {
+    
+    private final EncryptionService encryptionService;
+    private final Path encryptedFile;
+    private final SecretKey aesKey;
+    private final EncryptionService.SegmentedHeader header;
+    private final byte[] legacyIv;
+    private final long length;
+    
+    private PdfContent(EncryptionService encryptionService, Path encryptedFile, SecretKey aesKey,
+                       EncryptionService.SegmentedHeader header, byte[] legacyIv, long length) {
+        this.encryptionService = encryptionService;
+        this.encryptedFile = encryptedFile;
+        this.aesKey = aesKey;
+        this.header = header;
+        this.legacyIv = legacyIv;
+        this.length = length;
+    }
+    
+    static PdfContent segmented(EncryptionService encryptionService, Path encryptedFile, SecretKey aesKey,
+                                EncryptionService.SegmentedHeader header) {
+        return new PdfContent(encryptionService, encryptedFile, aesKey, header, null, header.plaintextLength());
+    }
+    
+    static PdfContent legacy(EncryptionService encryptionService, Path encryptedFile, SecretKey aesKey,
+                             byte[] iv) throws IOException {
+        long length = Files.size(encryptedFile) - EncryptionService.GCM_TAG_LENGTH;
+        return new PdfContent(encryptionService, encryptedFile, aesKey, null, iv, length);
+    }
+    
+    /**
+     * Kích thước PDF sau giải mã
+     */
+    public long getLength() {
+        return length;
+    }
+    
+    public boolean isSegmented() {
+        return header != null;
+    }
+    
+    /**
+     * Giải mã và ghi toàn bộ PDF ra output
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (header != null) {
+            encryptionService.decryptSegmented(encryptedFile, header, aesKey, out);
+            return;
+        }
+        
+        out.write(decryptLegacy());
+    }
+    
+    /**
+     * Giải mã và ghi đoạn [start, end] (tính cả end).
+     * File segmented chỉ giải mã các segment chứa đoạn này.
+     */
+    public void writeRange(OutputStream out, long start, long end) throws IOException {
+        if (header != null) {
+            encryptionService.decryptSegmented(encryptedFile, header, aesKey, out, start, end);
+            return;
+        }
+        out.write(decryptLegacy(), (int) start, (int) (end - start + 1));
+    }
+    
+    /**
+     * Mở PDF để PDFBox đọc ngẫu nhiên mà không ghi bản giải mã ra đĩa.
+     * File segmented chỉ giải mã các segment được đọc tới; file cũ được giải mã cả file vào bộ nhớ.
+     */
+    public RandomAccessRead openRandomAccess() throws IOException {
+        if (header != null) {
+            return new DecryptingRandomAccessRead(encryptionService, encryptedFile, header, aesKey);
+        }
+        return new RandomAccessReadBuffer(decryptLegacy());
+    }
+    
+    private byte[] decryptLegacy() throws IOException {
+        try {
+            return encryptionService.decryptPDF(Files.readAllBytes(encryptedFile), aesKey, legacyIv);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to decrypt PDF: " + e.getMessage(), e);
+        }
+    }
+}
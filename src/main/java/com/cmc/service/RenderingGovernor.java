@@ -0,0 +1,147 @@
+package com.cmc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Giới hạn bộ nhớ cho việc render PDF.
+ * Mỗi trang đang render giữ một phần ngân sách ước tính theo raster (width × height × 4 byte × số bản sao);
+ * trang mới chỉ được render khi còn đủ ngân sách. Trang quá lớn bị giảm DPI để số pixel không vượt giới hạn.
+ */
+@Service
+@Slf4j
+public class RenderingGovernor {
+    
+    // Raster từ PDFRenderer + buffer khi encode JPEG
+    private static final int RASTER_COPIES = 2;
+    private static final int BYTES_PER_PIXEL = 4;
+    // Semaphore đếm theo KB để ngân sách lớn không tràn int
+    private static final int UNIT = 1024;
+    // Scratch file của PDFBox (có thể chứa nội dung PDF đã giải mã), xóa sạch mỗi lần khởi động
+    private static final String SCRATCH_FOLDER = "render";
+    
+    private final Semaphore budget;
+    private final int budgetUnits;
+    private final long maxPagePixels;
+    private final long documentMemory;
+    private final File scratchDir;
+    
+    public RenderingGovernor(@Value("${rendering.memory-budget:0}") long memoryBudget,
+                             @Value("${rendering.max-page-pixels:16000000}") long maxPagePixels,
+                             @Value("${rendering.document-memory:16777216}") long documentMemory,
+                             @Value("${storage.temp-path}") String tempPath) {
+        // 0 = 1/4 heap
+        long budgetBytes = memoryBudget > 0 ? memoryBudget : Runtime.getRuntime().maxMemory() / 4;
+        this.budgetUnits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budgetBytes / UNIT));
+        this.budget = new Semaphore(budgetUnits, true);
+        this.maxPagePixels = maxPagePixels;
+        this.documentMemory = documentMemory;
+        this.scratchDir = resetScratchDir(Paths.get(tempPath, SCRATCH_FOLDER));
+        log.info("Rendering memory budget: {} MB, max {} pixels per page", budgetBytes / (1024 * 1024), maxPagePixels);
+    }
+    
+    /**
+     * DPI dùng để render trang: giảm từ requestedDpi nếu trang vượt quá max-page-pixels
+     */
+    public float dpiFor(PDPage page, float requestedDpi) {
+        return dpiFor(PDFProcessingService.PageSize.of(page), requestedDpi);
+    }
+    
+    /**
+     * DPI dùng để render trang có kích thước size (point, đã tính rotation)
+     */
+    public float dpiFor(PDFProcessingService.PageSize size, float requestedDpi) {
+        double pixels = (size.getWidth() / 72.0 * requestedDpi) * (size.getHeight() / 72.0 * requestedDpi);
+        if (pixels <= maxPagePixels) {
+            return requestedDpi;
+        }
+        float dpi = (float) Math.max(1, Math.floor(requestedDpi * Math.sqrt(maxPagePixels / pixels)));
+        log.debug("Page of {} pixels exceeds limit, rendering at {} DPI instead of {}", (long) pixels, dpi, requestedDpi);
+        return dpi;
+    }
+    
+    /**
+     * Chờ tới khi đủ ngân sách để render trang ở dpi đã chọn.
+     * Trang lớn hơn cả ngân sách được render một mình.
+     */
+    public Permit acquire(PDPage page, float dpi) throws IOException {
+        PDFProcessingService.PageSize size = PDFProcessingService.PageSize.of(page);
+        long bytes = (long) (Math.ceil(size.getWidth() / 72.0 * dpi) * Math.ceil(size.getHeight() / 72.0 * dpi))
+                * BYTES_PER_PIXEL * RASTER_COPIES;
+        int units = (int) Math.min(budgetUnits, Math.max(1, bytes / UNIT));
+        try {
+            budget.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for rendering memory", e);
+        }
+        return new Permit(units);
+    }
+    
+    /**
+     * Stream cache cho PDFBox: giữ tối đa document-memory trong heap, phần còn lại ghi ra scratch file
+     */
+    public RandomAccessStreamCache.StreamCacheCreateFunction streamCache() {
+        return MemoryUsageSetting.setupMixed(documentMemory)
+                .setTempDir(scratchDir)
+                .streamCache;
+    }
+    
+    /**
+     * Xóa scratch file còn sót lại từ lần chạy trước (process bị kill giữa lúc render)
+     */
+    private static File resetScratchDir(Path dir) {
+        try {
+            if (Files.exists(dir)) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to prepare rendering scratch directory " + dir, e);
+        }
+        return dir.toFile();
+    }
+    
+    /**
+     * Ngân sách còn trống (byte)
+     */
+    public long availableBytes() {
+        return (long) budget.availablePermits() * UNIT;
+    }
+    
+    /**
+     * Phần ngân sách đang giữ, trả lại khi close
+     */
+    public class Permit implements AutoCloseable {
+        private final int units;
+        private boolean released;
+        
+        private Permit(int units) {
+            this.units = units;
+        }
+        
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                budget.release(units);
+            }
+        }
+    }
+}
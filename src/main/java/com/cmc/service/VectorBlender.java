@@ -0,0 +1,53 @@
+package com.cmc.service;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Alpha-blend bằng SIMD, chỉ được load (qua WatermarkCompositor) khi JVM chạy với --add-modules jdk.incubator.vector.
+ * Chia cho 255 được thay bằng (x * 0x8081) >>> 23, cho kết quả giống hệt phép chia với x trong [0, 65535].
+ */
+final class VectorBlender implements WatermarkCompositor.RowBlender {
+    
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    
+    VectorBlender() {
+    }
+    
+    @Override
+    public int laneCount() {
+        return SPECIES.length();
+    }
+    
+    @Override
+    public void blendRow(int[] dst, int dstOffset, int[] mask, int maskOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            IntVector s = IntVector.fromArray(SPECIES, mask, maskOffset + i);
+            IntVector a = s.lanewise(VectorOperators.LSHR, 24);
+            if (a.reduceLanes(VectorOperators.OR) == 0) {
+                continue; // Cả đoạn trong suốt
+            }
+            IntVector d = IntVector.fromArray(SPECIES, dst, dstOffset + i);
+            IntVector inv = a.neg().add(255);
+            
+            IntVector r = channel(s, d, a, inv, 16);
+            IntVector g = channel(s, d, a, inv, 8);
+            IntVector b = channel(s, d, a, inv, 0);
+            
+            r.lanewise(VectorOperators.LSHL, 16)
+             .or(g.lanewise(VectorOperators.LSHL, 8))
+             .or(b)
+             .intoArray(dst, dstOffset + i);
+        }
+        WatermarkCompositor.blendRowScalar(dst, dstOffset + i, mask, maskOffset + i, length - i);
+    }
+    
+    private static IntVector channel(IntVector s, IntVector d, IntVector a, IntVector inv, int shift) {
+        IntVector sc = s.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        IntVector dc = d.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+        return sc.mul(a).add(dc.mul(inv)).mul(0x8081).lanewise(VectorOperators.LSHR, 23);
+    }
+}
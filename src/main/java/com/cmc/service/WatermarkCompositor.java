@@ -0,0 +1,87 @@
+package com.cmc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Alpha-blend mask watermark ARGB (không premultiplied) vào raster RGB dạng int[].
+ * Dùng Vector API (jdk.incubator.vector) khi JVM có module này, nếu không thì dùng vòng lặp scalar.
+ * VectorBlender được biên dịch trong execution riêng (compile-vector trong pom.xml) và chỉ load qua reflection,
+ * nên phần còn lại của project biên dịch không cần module incubator.
+ */
+@Service
+@Slf4j
+public class WatermarkCompositor {
+    
+    // null: dùng vòng lặp scalar
+    private final RowBlender vectorBlender;
+    
+    public WatermarkCompositor(@Value("${watermark.simd-enabled:true}") boolean simdEnabled) {
+        this.vectorBlender = simdEnabled ? loadVectorBlender() : null;
+        log.info("Watermark compositor: {}",
+                vectorBlender != null ? "SIMD (" + vectorBlender.laneCount() + " lanes)" : "scalar");
+    }
+    
+    public boolean isSimd() {
+        return vectorBlender != null;
+    }
+    
+    /**
+     * Blend mask (width × height) vào dst tại vị trí (x, y); dstWidth là chiều rộng raster đích
+     */
+    public void blend(int[] dst, int dstWidth, int[] mask, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            int maskOffset = row * width;
+            int dstOffset = (y + row) * dstWidth + x;
+            if (vectorBlender != null) {
+                vectorBlender.blendRow(dst, dstOffset, mask, maskOffset, width);
+            } else {
+                blendRowScalar(dst, dstOffset, mask, maskOffset, width);
+            }
+        }
+    }
+    
+    static void blendRowScalar(int[] dst, int dstOffset, int[] mask, int maskOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int s = mask[maskOffset + i];
+            int a = s >>> 24;
+            if (a == 0) {
+                continue;
+            }
+            int d = dst[dstOffset + i];
+            int inv = 255 - a;
+            int r = (((s >> 16) & 0xFF) * a + ((d >> 16) & 0xFF) * inv) / 255;
+            int g = (((s >> 8) & 0xFF) * a + ((d >> 8) & 0xFF) * inv) / 255;
+            int b = ((s & 0xFF) * a + (d & 0xFF) * inv) / 255;
+            dst[dstOffset + i] = (r << 16) | (g << 8) | b;
+        }
+    }
+    
+    /**
+     * Load VectorBlender khi JVM có module Vector API (load class khi thiếu module sẽ lỗi)
+     */
+    private static RowBlender loadVectorBlender() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (RowBlender) Class.forName(WatermarkCompositor.class.getPackageName() + ".VectorBlender")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Vector API blender unavailable, using scalar: {}", e.toString());
+            return null;
+        }
+    }
+    
+    /**
+     * Blend một hàng pixel, cùng kết quả với blendRowScalar
+     */
+    interface RowBlender {
+        
+        void blendRow(int[] dst, int dstOffset, int[] mask, int maskOffset, int length);
+        
+        int laneCount();
+    }
+}
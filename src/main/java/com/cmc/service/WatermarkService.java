@@ -0,0 +1,358 @@
+package com.cmc.service;
+
+import com.cmc.entity.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Watermark theo người xem, thêm vào ảnh trang gốc khi trả ảnh.
+ * - Ảnh gốc đã decode được cache theo đường dẫn, giới hạn theo tổng dung lượng (tùy chọn off-heap).
+ *   Caffeine dùng W-TinyLFU: trang chỉ đọc một lần (lướt qua sách dài) không đẩy được trang hay đọc ra khỏi cache
+ * - Watermark của mỗi người xem được vẽ sẵn thành các sprite ARGB nhỏ, cache theo (user, kích thước, phút)
+ * - Ghép ảnh bằng cách copy raster gốc vào raster lấy từ pool rồi alpha-blend sprite trực tiếp vào int[]
+ *   qua WatermarkCompositor (SIMD nếu có)
+ */
+@Service
+@Slf4j
+public class WatermarkService {
+    
+    // Chiều rộng ảnh A4 ở 150 DPI, font watermark được scale theo tỉ lệ chiều rộng ảnh so với giá trị này
+    private static final float REFERENCE_WIDTH = 1240f;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, false);
+    
+    private final Font mainFont;
+    private final Font smallFont;
+    private final Font centerFont;
+    private final float opacity;
+    private final float jpegQuality;
+    private final int rasterPoolSize;
+    private final boolean baseCacheOffHeap;
+    private final WatermarkCompositor compositor;
+    
+    private final Cache<Path, BaseRaster> baseRasters;
+    private final Cache<SpriteKey, List<Sprite>> sprites;
+    private final ConcurrentMap<Long, ConcurrentLinkedDeque<BufferedImage>> rasterPool = new ConcurrentHashMap<>();
+    private final AtomicInteger pooledRasters = new AtomicInteger();
+    
+    public WatermarkService(@Value("${watermark.font-size}") int fontSize,
+                            @Value("${watermark.opacity}") float opacity,
+                            @Value("${watermark.jpeg-quality:0.85}") float jpegQuality,
+                            @Value("${watermark.base-cache-size:134217728}") long baseCacheSize,
+                            @Value("${watermark.sprite-cache-size:67108864}") long spriteCacheSize,
+                            @Value("${watermark.raster-pool-size:8}") int rasterPoolSize,
+                            @Value("${watermark.base-cache-off-heap:false}") boolean baseCacheOffHeap,
+                            WatermarkCompositor compositor,
+                            MeterRegistry meterRegistry) {
+        this.mainFont = new Font("Arial", Font.BOLD, fontSize);
+        this.smallFont = new Font("Arial", Font.PLAIN, fontSize - 2);
+        this.centerFont = new Font("Arial", Font.BOLD, fontSize + 10);
+        this.opacity = opacity;
+        this.jpegQuality = jpegQuality;
+        this.rasterPoolSize = rasterPoolSize;
+        this.baseCacheOffHeap = baseCacheOffHeap;
+        this.compositor = compositor;
+        
+        this.baseRasters = Caffeine.newBuilder()
+                .maximumWeight(baseCacheSize)
+                .weigher((Path path, BaseRaster raster) -> raster.bytes())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, baseRasters, "page.base-rasters");
+        Gauge.builder("cache.resident.bytes", baseRasters,
+                        cache -> cache.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .tag("cache", "page.base-rasters")
+                .tag("storage", baseCacheOffHeap ? "direct" : "heap")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        // Timestamp trong watermark đổi mỗi phút nên sprite không cần sống lâu
+        this.sprites = Caffeine.newBuilder()
+                .maximumWeight(spriteCacheSize)
+                .weigher((SpriteKey key, List<Sprite> value) -> value.stream().mapToInt(s -> s.argb().length * 4).sum())
+                .expireAfterWrite(Duration.ofMinutes(2))
+                .build();
+    }
+    
+    /**
+     * Thêm watermark của người xem vào ảnh gốc, trả về JPEG
+     */
+    public PageImage applyWatermark(Path baseImage, User viewer) throws IOException {
+        BaseRaster base = loadBase(baseImage);
+        List<Sprite> overlay = spritesFor(viewer, base.width(), base.height());
+        
+        BufferedImage raster = borrowRaster(base.width(), base.height());
+        try {
+            int[] pixels = ((DataBufferInt) raster.getRaster().getDataBuffer()).getData();
+            base.copyTo(pixels);
+            for (Sprite sprite : overlay) {
+                compositor.blend(pixels, base.width(), sprite.argb(), sprite.x(), sprite.y(), sprite.width(), sprite.height());
+            }
+            return encodeJpeg(raster);
+        } finally {
+            returnRaster(raster);
+        }
+    }
+    
+    /**
+     * Nạp trước ảnh gốc đã decode và watermark của người xem vào cache (prefetch trang sắp đọc)
+     */
+    public void preload(Path baseImage, User viewer) throws IOException {
+        BaseRaster base = loadBase(baseImage);
+        spritesFor(viewer, base.width(), base.height());
+    }
+    
+    private BaseRaster loadBase(Path path) throws IOException {
+        try {
+            // Request đồng thời cùng trang chỉ decode một lần
+            return baseRasters.get(path, p -> {
+                try {
+                    return decodeBase(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private BaseRaster decodeBase(Path path) throws IOException {
+        BufferedImage decoded = ImageIO.read(path.toFile());
+        if (decoded == null) {
+            throw new IOException("Unsupported image: " + path.getFileName());
+        }
+        
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+        g2d.drawImage(decoded, 0, 0, null);
+        g2d.dispose();
+        
+        int[] pixels = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+        if (!baseCacheOffHeap) {
+            return new BaseRaster(width, height, pixels, null);
+        }
+        // Off-heap: raster lớn không nằm trong heap, GC không phải quét/copy
+        IntBuffer direct = ByteBuffer.allocateDirect(pixels.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer()
+                .put(0, pixels);
+        return new BaseRaster(width, height, null, direct);
+    }
+    
+    private List<Sprite> spritesFor(User viewer, int width, int height) {
+        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
+        SpriteKey key = new SpriteKey(viewer.getId(), width, height, timestamp);
+        return sprites.get(key, k -> createSprites(viewer, width, height, timestamp));
+    }
+    
+    /**
+     * Vẽ sẵn các lớp watermark (cùng bố cục với watermark lúc upload trước đây):
+     * dòng chính góc dưới trái, email góc trên phải, username xoay 45 độ ở giữa trang
+     */
+    private List<Sprite> createSprites(User viewer, int width, int height, String timestamp) {
+        float scale = Math.max(0.25f, Math.min(2f, width / REFERENCE_WIDTH));
+        Font main = mainFont.deriveFont(mainFont.getSize2D() * scale);
+        Font small = smallFont.deriveFont(smallFont.getSize2D() * scale);
+        Font center = centerFont.deriveFont(centerFont.getSize2D() * scale);
+        int margin = Math.round(10 * scale);
+        
+        List<Sprite> result = new ArrayList<>(3);
+        
+        // Dòng chính góc dưới trái, có nền trắng mờ
+        String mainText = String.format("%s | %s | %s",
+                viewer.getEmail(),
+                viewer.getFullName() != null ? viewer.getFullName() : viewer.getUsername(),
+                timestamp);
+        Rectangle textBounds = textBounds(mainText, main, margin, height - margin, null);
+        int textHeight = Math.round(main.getLineMetrics(mainText, FONT_RENDER_CONTEXT).getHeight());
+        int padding = Math.round(5 * scale);
+        Rectangle background = new Rectangle(margin - padding, height - margin - textHeight + padding,
+                textBounds.width + 2 * padding, textHeight);
+        Color mainColor = new Color(128, 128, 128, alpha(1f));
+        Color backgroundColor = new Color(255, 255, 255, alpha(0.8f));
+        addSprite(result, textBounds.union(background), width, height, g2d -> {
+            g2d.setColor(backgroundColor);
+            g2d.fill(background);
+            g2d.setFont(main);
+            g2d.setColor(mainColor);
+            g2d.drawString(mainText, margin, height - margin);
+        });
+        
+        // Email góc trên phải
+        String email = viewer.getEmail();
+        int emailX = width - (int) Math.ceil(small.getStringBounds(email, FONT_RENDER_CONTEXT).getWidth()) - margin;
+        int emailY = Math.round(20 * scale);
+        Color lightColor = new Color(128, 128, 128, alpha(0.3f));
+        addSprite(result, textBounds(email, small, emailX, emailY, null), width, height, g2d -> {
+            g2d.setFont(small);
+            g2d.setColor(lightColor);
+            g2d.drawString(email, emailX, emailY);
+        });
+        
+        // Username xoay 45 độ ở giữa trang (rất mờ)
+        String centerText = viewer.getUsername().toUpperCase();
+        int centerX = (width - (int) Math.ceil(center.getStringBounds(centerText, FONT_RENDER_CONTEXT).getWidth())) / 2;
+        int centerY = height / 2;
+        AffineTransform rotation = AffineTransform.getRotateInstance(Math.toRadians(-45), centerX, centerY);
+        Color veryLightColor = new Color(128, 128, 128, alpha(0.1f));
+        addSprite(result, textBounds(centerText, center, centerX, centerY, rotation), width, height, g2d -> {
+            g2d.transform(rotation);
+            g2d.setFont(center);
+            g2d.setColor(veryLightColor);
+            g2d.drawString(centerText, centerX, centerY);
+        });
+        
+        return result;
+    }
+    
+    private int alpha(float factor) {
+        return Math.max(0, Math.min(255, (int) (255 * opacity * factor)));
+    }
+    
+    private Rectangle textBounds(String text, Font font, int x, int y, AffineTransform transform) {
+        Shape outline = font.createGlyphVector(FONT_RENDER_CONTEXT, text).getOutline(x, y);
+        if (transform != null) {
+            outline = transform.createTransformedShape(outline);
+        }
+        Rectangle bounds = outline.getBounds();
+        bounds.grow(1, 1); // antialiasing
+        return bounds;
+    }
+    
+    /**
+     * Vẽ một lớp watermark vào ảnh ARGB vừa với bounds (đã cắt theo trang)
+     */
+    private void addSprite(List<Sprite> result, Rectangle bounds, int width, int height,
+                           Consumer<Graphics2D> painter) {
+        Rectangle clipped = bounds.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        
+        BufferedImage image = new BufferedImage(clipped.width, clipped.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2d.translate(-clipped.x, -clipped.y);
+        painter.accept(g2d);
+        g2d.dispose();
+        
+        int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        result.add(new Sprite(clipped.x, clipped.y, clipped.width, clipped.height, argb));
+    }
+    
+    private PageImage encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        JpegBuffer out = new JpegBuffer(image.getWidth() * image.getHeight() / 4);
+        try (MemoryCacheImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toPageImage();
+    }
+    
+    /**
+     * Lấy raster cùng kích thước từ pool, tạo mới nếu pool rỗng
+     */
+    private BufferedImage borrowRaster(int width, int height) {
+        ConcurrentLinkedDeque<BufferedImage> pool = rasterPool.get(dimensionKey(width, height));
+        BufferedImage raster = pool != null ? pool.pollFirst() : null;
+        if (raster != null) {
+            pooledRasters.decrementAndGet();
+            return raster;
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+    
+    private void returnRaster(BufferedImage raster) {
+        if (pooledRasters.incrementAndGet() > rasterPoolSize) {
+            pooledRasters.decrementAndGet();
+            return;
+        }
+        rasterPool.computeIfAbsent(dimensionKey(raster.getWidth(), raster.getHeight()),
+                key -> new ConcurrentLinkedDeque<>()).offerFirst(raster);
+    }
+    
+    private static long dimensionKey(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+    
+    /**
+     * Ảnh gốc đã decode, pixel nằm trong int[] (heap) hoặc direct buffer (off-heap)
+     */
+    private record BaseRaster(int width, int height, int[] heapPixels, IntBuffer directPixels) {
+        
+        int bytes() {
+            return width * height * 4;
+        }
+        
+        void copyTo(int[] target) {
+            if (heapPixels != null) {
+                System.arraycopy(heapPixels, 0, target, 0, target.length);
+            } else {
+                directPixels.get(0, target);
+            }
+        }
+    }
+    
+    private record SpriteKey(Long userId, int width, int height, String timestamp) {
+    }
+    
+    private record Sprite(int x, int y, int width, int height, int[] argb) {
+    }
+    
+    /**
+     * Trả thẳng buffer của encoder cho response, không copy thêm như toByteArray()
+     */
+    private static final class JpegBuffer extends ByteArrayOutputStream {
+        
+        JpegBuffer(int size) {
+            super(size);
+        }
+        
+        PageImage toPageImage() {
+            return PageImage.of(buf, count);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cmc.benchmark;
+
+import com.cmc.service.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh throughput mã hóa / giải mã một segment 64KB và tạo AES key:
+ * - legacy*: cách cũ, SecureRandom.getInstanceStrong() và Cipher/KeyGenerator.getInstance mỗi lần gọi
+ * - engine*: EncryptionService với DRBG dùng chung và Cipher/KeyGenerator theo thread
+ *
+ * Chạy: mvn test-compile, sau đó
+ * java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      com.cmc.benchmark.EncryptionServiceBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EncryptionServiceBenchmark {
+    
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    
+    private EncryptionService engine;
+    private SecretKey key;
+    private byte[] plaintext;
+    private EncryptionService.EncryptionResult encrypted;
+    
+    @Setup
+    public void setup() throws Exception {
+        engine = new EncryptionService();
+        ReflectionTestUtils.setField(engine, "aesKeySize", 256);
+        key = engine.generateAESKey();
+        plaintext = new byte[SEGMENT_SIZE];
+        new Random(42).nextBytes(plaintext);
+        encrypted = engine.encryptPDF(plaintext, key);
+    }
+    
+    @Benchmark
+    public byte[] legacyEncrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] iv = new byte[12];
+        SecureRandom.getInstanceStrong().nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return cipher.doFinal(plaintext);
+    }
+    
+    @Benchmark
+    public byte[] engineEncrypt() throws Exception {
+        return engine.encryptPDF(plaintext, key).getEncryptedData();
+    }
+    
+    @Benchmark
+    public byte[] legacyDecrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, encrypted.getIv()));
+        return cipher.doFinal(encrypted.getEncryptedData());
+    }
+    
+    @Benchmark
+    public byte[] engineDecrypt() throws Exception {
+        return engine.decryptPDF(encrypted.getEncryptedData(), key, encrypted.getIv());
+    }
+    
+    @Benchmark
+    public SecretKey legacyGenerateKey() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        return keyGenerator.generateKey();
+    }
+    
+    @Benchmark
+    public SecretKey engineGenerateKey() {
+        return engine.generateAESKey();
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EncryptionServiceBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,139 @@
+package com.cmc.benchmark;
+
+import com.cmc.service.WatermarkCompositor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh cách thêm watermark vào một trang 150 DPI (1275 × 1650):
+ * - graphics2dText: cách cũ, drawImage trang sang ảnh mới rồi vẽ 3 lớp text antialias bằng Java2D
+ * - graphics2dMask: drawImage mask ARGB đã vẽ sẵn lên bản copy của trang
+ * - scalar / simd: copy int[] rồi alpha-blend mask bằng WatermarkCompositor
+ *
+ * Chạy: mvn test-compile, sau đó
+ * java --add-modules jdk.incubator.vector -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      com.cmc.benchmark.WatermarkCompositorBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class WatermarkCompositorBenchmark {
+    
+    private static final int WIDTH = 1275;
+    private static final int HEIGHT = 1650;
+    private static final float OPACITY = 0.5f;
+    
+    private BufferedImage page;
+    private int[] pagePixels;
+    private BufferedImage mask;
+    private int[] maskPixels;
+    private BufferedImage target;
+    private int[] targetPixels;
+    private WatermarkCompositor scalar;
+    private WatermarkCompositor simd;
+    
+    @Setup
+    public void setup() {
+        page = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = page.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+        g2d.setColor(Color.BLACK);
+        g2d.setFont(new Font("Serif", Font.PLAIN, 18));
+        for (int y = 60; y < HEIGHT - 60; y += 24) {
+            g2d.drawString("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor", 80, y);
+        }
+        g2d.dispose();
+        pagePixels = ((DataBufferInt) page.getRaster().getDataBuffer()).getData();
+        
+        mask = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D maskGraphics = mask.createGraphics();
+        drawWatermark(maskGraphics);
+        maskGraphics.dispose();
+        maskPixels = ((DataBufferInt) mask.getRaster().getDataBuffer()).getData();
+        
+        target = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        
+        scalar = new WatermarkCompositor(false);
+        simd = new WatermarkCompositor(true);
+    }
+    
+    @Benchmark
+    public BufferedImage graphics2dText() {
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = result.createGraphics();
+        g2d.drawImage(page, 0, 0, null);
+        drawWatermark(g2d);
+        g2d.dispose();
+        return result;
+    }
+    
+    @Benchmark
+    public BufferedImage graphics2dMask() {
+        Graphics2D g2d = target.createGraphics();
+        g2d.drawImage(page, 0, 0, null);
+        g2d.drawImage(mask, 0, 0, null);
+        g2d.dispose();
+        return target;
+    }
+    
+    @Benchmark
+    public int[] scalar() {
+        System.arraycopy(pagePixels, 0, targetPixels, 0, targetPixels.length);
+        scalar.blend(targetPixels, WIDTH, maskPixels, 0, 0, WIDTH, HEIGHT);
+        return targetPixels;
+    }
+    
+    @Benchmark
+    public int[] simd() {
+        System.arraycopy(pagePixels, 0, targetPixels, 0, targetPixels.length);
+        simd.blend(targetPixels, WIDTH, maskPixels, 0, 0, WIDTH, HEIGHT);
+        return targetPixels;
+    }
+    
+    /**
+     * Cùng bố cục với watermark trang sách: dòng chính góc dưới trái, email góc trên phải, username xoay giữa trang
+     */
+    private static void drawWatermark(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        
+        String text = "reader@example.com | Reader One | 01/01/2024 10:00";
+        g2d.setFont(new Font("Arial", Font.BOLD, 12));
+        FontMetrics fm = g2d.getFontMetrics();
+        g2d.setColor(new Color(255, 255, 255, (int) (255 * OPACITY * 0.8)));
+        g2d.fillRect(5, HEIGHT - 10 - fm.getHeight() + 5, fm.stringWidth(text) + 10, fm.getHeight());
+        g2d.setColor(new Color(128, 128, 128, (int) (255 * OPACITY)));
+        g2d.drawString(text, 10, HEIGHT - 10);
+        
+        g2d.setFont(new Font("Arial", Font.PLAIN, 10));
+        g2d.setColor(new Color(128, 128, 128, (int) (255 * OPACITY * 0.3)));
+        g2d.drawString("reader@example.com", WIDTH - g2d.getFontMetrics().stringWidth("reader@example.com") - 10, 20);
+        
+        g2d.setFont(new Font("Arial", Font.BOLD, 22));
+        g2d.setColor(new Color(128, 128, 128, (int) (255 * OPACITY * 0.1)));
+        int x = (WIDTH - g2d.getFontMetrics().stringWidth("READER")) / 2;
+        int y = HEIGHT / 2;
+        g2d.rotate(Math.toRadians(-45), x, y);
+        g2d.drawString("READER", x, y);
+        g2d.rotate(Math.toRadians(45), x, y);
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WatermarkCompositorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
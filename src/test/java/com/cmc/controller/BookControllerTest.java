@@ -0,0 +1,181 @@
+package com.cmc.controller;
+
+import com.cmc.dto.ResourceVersion;
+import com.cmc.entity.User;
+import com.cmc.service.BookService;
+import com.cmc.service.ChunkedUploadService;
+import com.cmc.service.PdfContent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Tải PDF: Range một đoạn, suffix range, 416, If-Range (ETag và HTTP-date) và việc ghi log tải về
+ */
+class BookControllerTest {
+    
+    private static final String ETAG = "\"9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08\"";
+    // Last-Modified có phần mili giây, header chỉ giữ tới giây
+    private static final long LAST_MODIFIED = 1_700_000_000_123L;
+    private static final String LAST_MODIFIED_DATE = DateTimeFormatter.RFC_1123_DATE_TIME
+            .format(Instant.ofEpochMilli(LAST_MODIFIED).atOffset(ZoneOffset.UTC));
+    
+    private BookService bookService;
+    private MockMvc mockMvc;
+    private byte[] pdf;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        pdf = new byte[1000];
+        new Random(3).nextBytes(pdf);
+        
+        bookService = mock(BookService.class);
+        when(bookService.getPdfVersion(1L)).thenReturn(new ResourceVersion(ETAG, LAST_MODIFIED));
+        when(bookService.getBookDescriptor(1L)).thenReturn(Optional.empty());
+        PdfContent content = mock(PdfContent.class);
+        when(content.getLength()).thenReturn((long) pdf.length);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(pdf);
+            return null;
+        }).when(content).writeTo(any());
+        doAnswer(invocation -> {
+            int start = (int) invocation.<Long>getArgument(1).longValue();
+            int end = (int) invocation.<Long>getArgument(2).longValue();
+            invocation.<OutputStream>getArgument(0).write(pdf, start, end - start + 1);
+            return null;
+        }).when(content).writeRange(any(), anyLong(), anyLong());
+        when(bookService.downloadPDF(eq(1L), any())).thenReturn(content);
+        
+        mockMvc = MockMvcBuilders.standaloneSetup(new BookController(bookService, mock(ChunkedUploadService.class)))
+                .build();
+    }
+    
+    @Test
+    void testFullDownload() throws Exception {
+        MvcResult result = perform(get("/books/1/download"));
+        
+        assertEquals(200, result.getResponse().getStatus());
+        assertArrayEquals(pdf, result.getResponse().getContentAsByteArray());
+        assertEquals("bytes", result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(ETAG, result.getResponse().getHeader(HttpHeaders.ETAG));
+        verify(bookService).logDownload(eq(1L), any(), any(), any());
+    }
+    
+    @Test
+    void testSingleRange() throws Exception {
+        MvcResult result = perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=100-199"));
+        
+        assertPartial(result, 100, 199);
+        // Request tiếp nối không tính thêm lượt tải
+        verify(bookService, never()).logDownload(anyLong(), any(), any(), any());
+        
+        assertPartial(perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=0-99")), 0, 99);
+        verify(bookService).logDownload(eq(1L), any(), any(), any());
+    }
+    
+    @Test
+    void testOpenEndedAndSuffixRanges() throws Exception {
+        assertPartial(perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=900-")), 900, 999);
+        assertPartial(perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=-100")), 900, 999);
+        // End vượt quá file được cắt về byte cuối
+        assertPartial(perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=990-5000")), 990, 999);
+    }
+    
+    @Test
+    void testUnsatisfiableRange() throws Exception {
+        MvcResult result = perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=1000-"));
+        
+        assertEquals(416, result.getResponse().getStatus());
+        assertEquals("bytes */1000", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, result.getResponse().getContentLength());
+        verify(bookService, never()).logDownload(anyLong(), any(), any(), any());
+    }
+    
+    @Test
+    void testMultipleRangesReturnWholeFile() throws Exception {
+        MvcResult result = perform(get("/books/1/download").header(HttpHeaders.RANGE, "bytes=0-9,20-29"));
+        
+        assertEquals(200, result.getResponse().getStatus());
+        assertArrayEquals(pdf, result.getResponse().getContentAsByteArray());
+    }
+    
+    @Test
+    void testIfRangeETag() throws Exception {
+        assertPartial(perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, ETAG)), 500, 999);
+        
+        // File đã đổi: trả toàn bộ file và tính là một lượt tải
+        MvcResult changed = perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, "\"old\""));
+        assertEquals(200, changed.getResponse().getStatus());
+        assertArrayEquals(pdf, changed.getResponse().getContentAsByteArray());
+        verify(bookService).logDownload(eq(1L), any(), any(), any());
+        
+        // ETag yếu không bao giờ khớp với If-Range
+        MvcResult weak = perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, "W/" + ETAG));
+        assertEquals(200, weak.getResponse().getStatus());
+    }
+    
+    @Test
+    void testIfRangeDate() throws Exception {
+        assertPartial(perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, LAST_MODIFIED_DATE)), 500, 999);
+        
+        String earlier = DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(Instant.ofEpochMilli(LAST_MODIFIED - 60_000).atOffset(ZoneOffset.UTC));
+        MvcResult changed = perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, earlier));
+        assertEquals(200, changed.getResponse().getStatus());
+        
+        MvcResult invalid = perform(get("/books/1/download")
+                .header(HttpHeaders.RANGE, "bytes=500-").header(HttpHeaders.IF_RANGE, "yesterday"));
+        assertEquals(200, invalid.getResponse().getStatus());
+    }
+    
+    @Test
+    void testNotModified() throws Exception {
+        MvcResult result = perform(get("/books/1/download").header(HttpHeaders.IF_NONE_MATCH, ETAG));
+        
+        assertEquals(304, result.getResponse().getStatus());
+        verify(bookService, never()).downloadPDF(anyLong(), any(User.class));
+        verify(bookService, never()).logDownload(anyLong(), any(), any(), any());
+    }
+    
+    private MvcResult perform(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            // StreamingResponseBody được ghi bất đồng bộ
+            result.getAsyncResult();
+            return mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result;
+    }
+    
+    private void assertPartial(MvcResult result, int start, int end) {
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes " + start + "-" + end + "/" + pdf.length,
+                result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(end - start + 1, result.getResponse().getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(pdf, start, end + 1), result.getResponse().getContentAsByteArray());
+    }
+}
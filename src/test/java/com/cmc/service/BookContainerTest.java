@@ -0,0 +1,141 @@
+package com.cmc.service;
+
+import com.cmc.service.PDFProcessingService.PageSize;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Header của container .book: ghi / đọc khứ hồi và từ chối file không hợp lệ
+ */
+class BookContainerTest {
+    
+    @TempDir
+    Path dir;
+    
+    private EncryptionService encryptionService;
+    
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "segmentSize", 65536);
+    }
+    
+    @Test
+    void testHeaderRoundTrip() throws IOException {
+        byte[] wrappedKey = randomBytes(256);
+        List<PageSize> pages = List.of(new PageSize(595.28f, 841.89f), new PageSize(841.89f, 595.28f),
+                new PageSize(612, 792));
+        BookContainer container = newContainer(wrappedKey, pages, 123_456_789L);
+        
+        BookContainer read = BookContainer.read(write(container));
+        
+        EncryptionService.SegmentedHeader expected = container.getSegments();
+        EncryptionService.SegmentedHeader actual = read.getSegments();
+        assertArrayEquals(wrappedKey, read.getWrappedKey());
+        assertEquals(expected.segmentSize(), actual.segmentSize());
+        assertEquals(expected.plaintextLength(), actual.plaintextLength());
+        assertArrayEquals(expected.noncePrefix(), actual.noncePrefix());
+        assertEquals(expected.dataOffset(), actual.dataOffset());
+        assertPageSizes(pages, read.getPageIndex());
+    }
+    
+    @Test
+    void testDataOffsetIsAligned() {
+        assertEquals(4096, BookContainer.headerLength(256, 0));
+        assertEquals(4096, BookContainer.headerLength(512, 100));
+        assertEquals(8192, BookContainer.headerLength(256, 500));
+    }
+    
+    @Test
+    void testLargePageIndex() throws IOException {
+        // Header lớn hơn lần đọc đầu tiên (16KB) phải đọc thêm lần nữa
+        List<PageSize> pages = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            pages.add(new PageSize(500 + i, 700 - i / 10f));
+        }
+        BookContainer container = newContainer(randomBytes(512), pages, 1L << 33);
+        assertTrue(container.getSegments().dataOffset() > 16 * 1024);
+        
+        BookContainer read = BookContainer.read(write(container));
+        
+        assertEquals(1L << 33, read.getSegments().plaintextLength());
+        assertEquals(container.getSegments().dataOffset(), read.getSegments().dataOffset());
+        assertPageSizes(pages, read.getPageIndex());
+    }
+    
+    @Test
+    void testNotAContainerIsRejected() throws IOException {
+        Path file = dir.resolve("random.book");
+        Files.write(file, randomBytes(8192));
+        assertThrows(IOException.class, () -> BookContainer.read(file));
+        
+        Path empty = dir.resolve("empty.book");
+        Files.createFile(empty);
+        assertThrows(IOException.class, () -> BookContainer.read(empty));
+    }
+    
+    @Test
+    void testNewerVersionIsRejected() throws IOException {
+        Path file = write(newContainer(randomBytes(256), List.of(new PageSize(100, 100)), 10));
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putShort(4, (short) 2);
+        Files.write(file, bytes);
+        
+        IOException e = assertThrows(IOException.class, () -> BookContainer.read(file));
+        assertTrue(e.getMessage().contains("version"));
+    }
+    
+    @Test
+    void testMismatchedDataOffsetIsRejected() {
+        byte[] wrappedKey = randomBytes(256);
+        EncryptionService.SegmentedHeader segments = encryptionService.newSegmentedHeader(10, 24);
+        assertThrows(IllegalArgumentException.class, () -> new BookContainer(wrappedKey, segments, List.of()));
+    }
+    
+    @Test
+    void testIsContainer() {
+        assertTrue(BookContainer.isContainer("book1.book"));
+        assertFalse(BookContainer.isContainer("book1.pdf.enc"));
+        assertFalse(BookContainer.isContainer(null));
+    }
+    
+    private BookContainer newContainer(byte[] wrappedKey, List<PageSize> pages, long plaintextLength) {
+        EncryptionService.SegmentedHeader segments = encryptionService.newSegmentedHeader(
+                plaintextLength, BookContainer.headerLength(wrappedKey.length, pages.size()));
+        return new BookContainer(wrappedKey, segments, pages);
+    }
+    
+    private Path write(BookContainer container) throws IOException {
+        ByteBuffer header = container.encodeHeader();
+        assertEquals(container.getSegments().dataOffset(), header.remaining());
+        byte[] bytes = new byte[header.remaining()];
+        header.get(bytes);
+        return Files.write(Files.createTempFile(dir, "container", BookContainer.EXTENSION), bytes);
+    }
+    
+    private static void assertPageSizes(List<PageSize> expected, List<PageSize> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getWidth(), actual.get(i).getWidth(), "width of page " + (i + 1));
+            assertEquals(expected.get(i).getHeight(), actual.get(i).getHeight(), "height of page " + (i + 1));
+        }
+    }
+    
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,267 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import com.cmc.entity.BookContent;
+import com.cmc.entity.IngestionJob;
+import com.cmc.entity.IngestionStatus;
+import com.cmc.repository.BookContentRepository;
+import com.cmc.repository.BookRepository;
+import com.cmc.repository.IngestionJobRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Dùng lại content trùng SHA-256 và reference count: file mã hóa của một sách chỉ bị xóa
+ * khi không còn sách nào tham chiếu. Repository được giả lập trong bộ nhớ với cùng điều kiện như các câu UPDATE/DELETE.
+ */
+class BookIngestionServiceTest {
+    
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    
+    @TempDir
+    Path dir;
+    
+    private final Map<Long, BookContent> contents = new HashMap<>();
+    private final Map<Long, IngestionJob> jobs = new HashMap<>();
+    private final AtomicLong ids = new AtomicLong(100);
+    
+    private BookContentRepository bookContentRepository;
+    private BookRepository bookRepository;
+    private PDFProcessingService pdfProcessingService;
+    private BookStorageService bookStorageService;
+    private BookIngestionService bookIngestionService;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        bookContentRepository = contentRepository();
+        bookRepository = mock(BookRepository.class);
+        when(bookRepository.save(any(Book.class))).thenAnswer(invocation -> {
+            Book book = invocation.getArgument(0);
+            if (book.getId() == null) {
+                book.setId(ids.incrementAndGet());
+            }
+            when(bookRepository.findWithUploaderById(book.getId())).thenReturn(Optional.of(book));
+            return book;
+        });
+        IngestionJobRepository ingestionJobRepository = mock(IngestionJobRepository.class);
+        when(ingestionJobRepository.save(any(IngestionJob.class))).thenAnswer(invocation -> {
+            IngestionJob job = invocation.getArgument(0);
+            if (job.getId() == null) {
+                job.setId(ids.incrementAndGet());
+            }
+            jobs.put(job.getId(), job);
+            return job;
+        });
+        when(ingestionJobRepository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<Long>getArgument(0))));
+        
+        // Job chạy ngay trên thread của test
+        ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any(Runnable.class));
+        
+        pdfProcessingService = mock(PDFProcessingService.class);
+        bookStorageService = new BookStorageService(null, new ObjectMapper(), bookContentRepository, null);
+        ReflectionTestUtils.setField(bookStorageService, "booksPath", dir.resolve("books").toString());
+        ReflectionTestUtils.setField(bookStorageService, "tempPath", dir.resolve("temp").toString());
+        Files.createDirectories(dir.resolve("books"));
+        
+        bookIngestionService = new BookIngestionService(bookRepository, ingestionJobRepository, bookContentRepository,
+                null, pdfProcessingService, bookStorageService, mock(BookManifestService.class),
+                mock(BookDescriptorCache.class), executor);
+    }
+    
+    @Test
+    void testDuplicateUploadReusesLiveContent() throws Exception {
+        BookContent shared = sharedContent(1);
+        
+        IngestionJob job = upload(HASH);
+        
+        assertEquals(IngestionStatus.COMPLETED, job.getStatus());
+        Book book = bookRepository.findWithUploaderById(job.getBookId()).orElseThrow();
+        assertTrue(book.getIsActive());
+        assertEquals(shared.getId(), book.getContentId());
+        assertEquals(shared.getEncryptedFilename(), book.getEncryptedFilename());
+        assertEquals(shared.getImagesFolder(), book.getImagesFolder());
+        assertEquals(2, shared.getReferenceCount());
+        assertFalse(Files.exists(bookStorageService.rawUploadPath(job.getRawFilename())));
+        verifyNoInteractions(pdfProcessingService);
+        assertSharedFilesExist(shared);
+    }
+    
+    @Test
+    void testContentReleasedToZeroIsNotReused() throws Exception {
+        // Sách cuối cùng vừa trả reference (count = 0) nhưng row và files chưa bị xóa
+        BookContent dying = sharedContent(0);
+        when(pdfProcessingService.ingestPDF(any(), anyString(), any())).thenThrow(new IOException("Broken PDF"));
+        
+        IngestionJob job = upload(HASH);
+        
+        // Không gắn vào content đang bị xóa: job xử lý như upload mới (ở đây lỗi khi đọc PDF)
+        verify(pdfProcessingService).ingestPDF(any(), anyString(), any());
+        assertEquals(IngestionStatus.FAILED, job.getStatus());
+        assertNull(bookRepository.findWithUploaderById(job.getBookId()).orElseThrow().getContentId());
+        assertEquals(0, dying.getReferenceCount());
+        verify(bookContentRepository, never()).release(anyLong());
+        
+        // Người giữ reference cuối hoàn tất việc xóa
+        assertEquals(1, bookContentRepository.deleteIfUnreferenced(dying.getId()));
+        assertFalse(contents.containsKey(dying.getId()));
+    }
+    
+    @Test
+    void testFailureAfterReuseOnlyReleasesReference() throws Exception {
+        BookContent shared = sharedContent(1);
+        // Lỗi sau khi đã lấy reference và kích hoạt book
+        when(bookRepository.save(argThat(book -> book != null && shared.getId().equals(book.getContentId()))))
+                .thenThrow(new IllegalStateException("Database unavailable"));
+        
+        IngestionJob job = upload(HASH);
+        
+        assertEquals(IngestionStatus.FAILED, job.getStatus());
+        assertEquals(1, shared.getReferenceCount());
+        assertTrue(contents.containsKey(shared.getId()));
+        assertSharedFilesExist(shared);
+    }
+    
+    @Test
+    void testFailureReleasesLastReference() throws Exception {
+        BookContent shared = sharedContent(1);
+        when(bookRepository.save(argThat(book -> book != null && shared.getId().equals(book.getContentId()))))
+                .thenAnswer(invocation -> {
+                    // Sách gốc bị xóa trong lúc job đang chạy: job giữ reference cuối cùng
+                    bookStorageService.releaseContent(shared.getId());
+                    throw new IllegalStateException("Database unavailable");
+                });
+        
+        IngestionJob job = upload(HASH);
+        
+        assertEquals(IngestionStatus.FAILED, job.getStatus());
+        assertFalse(contents.containsKey(shared.getId()));
+        assertFalse(Files.exists(books().resolve(shared.getEncryptedFilename())));
+        assertFalse(Files.exists(books().resolve(shared.getImagesFolder())));
+    }
+    
+    @Test
+    void testReleaseDeletesFilesOnlyWhenUnreferenced() throws IOException {
+        BookContent shared = sharedContent(2);
+        
+        bookStorageService.releaseContent(shared.getId());
+        assertEquals(1, shared.getReferenceCount());
+        assertSharedFilesExist(shared);
+        
+        bookStorageService.releaseContent(shared.getId());
+        assertFalse(contents.containsKey(shared.getId()));
+        assertFalse(Files.exists(books().resolve(shared.getEncryptedFilename())));
+        assertFalse(Files.exists(books().resolve(shared.getImagesFolder())));
+        
+        // Release thừa hoặc content không tồn tại: không làm gì
+        bookStorageService.releaseContent(shared.getId());
+        verify(bookContentRepository, times(2)).deleteIfUnreferenced(shared.getId());
+    }
+    
+    @Test
+    void testReleaseAtZeroDoesNotDeleteTwice() throws IOException {
+        // Reference cuối đã được trả bởi thread khác, thread đó sẽ xóa
+        BookContent dying = sharedContent(0);
+        
+        bookStorageService.releaseContent(dying.getId());
+        
+        verify(bookContentRepository, never()).deleteIfUnreferenced(anyLong());
+        assertSharedFilesExist(dying);
+    }
+    
+    private IngestionJob upload(String contentHash) throws IOException {
+        String rawFilename = "upload_" + ids.incrementAndGet() + ".pdf";
+        Files.write(bookStorageService.rawUploadPath(rawFilename), new byte[] { '%', 'P', 'D', 'F' });
+        
+        Book book = new Book();
+        book.setTitle("Duplicate");
+        book.setContentHash(contentHash);
+        book.setIsActive(false);
+        return bookIngestionService.submit(book, rawFilename);
+    }
+    
+    /**
+     * Content của một sách đã xử lý, files có thật trên đĩa
+     */
+    private BookContent sharedContent(int referenceCount) throws IOException {
+        BookContent content = new BookContent();
+        content.setId(ids.incrementAndGet());
+        content.setContentHash(HASH);
+        content.setEncryptedFilename("book1.book");
+        content.setKeyFilename("book1.book");
+        content.setMetadataFilename("book1.book");
+        content.setImagesFolder("book1_images");
+        content.setTotalPages(12);
+        content.setReferenceCount(referenceCount);
+        contents.put(content.getId(), content);
+        
+        Files.write(books().resolve("book1.book"), new byte[] { 1, 2, 3 });
+        Files.createDirectories(books().resolve("book1_images/base"));
+        Files.write(books().resolve("book1_images/base/page_001.jpg"), new byte[] { 4 });
+        return content;
+    }
+    
+    private void assertSharedFilesExist(BookContent content) {
+        assertTrue(Files.exists(books().resolve(content.getEncryptedFilename())));
+        assertTrue(Files.exists(books().resolve(content.getImagesFolder()).resolve("base/page_001.jpg")));
+    }
+    
+    private Path books() {
+        return dir.resolve("books");
+    }
+    
+    /**
+     * BookContentRepository trong bộ nhớ, cùng điều kiện với các câu JPQL: acquire/release chỉ khi count > 0,
+     * deleteIfUnreferenced chỉ khi count = 0
+     */
+    private BookContentRepository contentRepository() {
+        BookContentRepository repository = mock(BookContentRepository.class);
+        when(repository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(contents.get(invocation.<Long>getArgument(0))));
+        when(repository.findByContentHash(anyString())).thenAnswer(invocation -> contents.values().stream()
+                .filter(content -> content.getContentHash().equals(invocation.getArgument(0)))
+                .findFirst());
+        when(repository.acquire(anyLong())).thenAnswer(invocation -> update(invocation.getArgument(0), 1));
+        when(repository.release(anyLong())).thenAnswer(invocation -> update(invocation.getArgument(0), -1));
+        when(repository.deleteIfUnreferenced(anyLong())).thenAnswer(invocation -> {
+            BookContent content = contents.get(invocation.<Long>getArgument(0));
+            if (content == null || content.getReferenceCount() != 0) {
+                return 0;
+            }
+            contents.remove(content.getId());
+            return 1;
+        });
+        return repository;
+    }
+    
+    private int update(Long id, int delta) {
+        BookContent content = contents.get(id);
+        if (content == null || content.getReferenceCount() <= 0) {
+            return 0;
+        }
+        content.setReferenceCount(content.getReferenceCount() + delta);
+        return 1;
+    }
+}
@@ -0,0 +1,188 @@
+package com.cmc.service;
+
+import com.cmc.entity.Book;
+import com.cmc.service.PDFProcessingService.PageSize;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chuyển sách từ bộ ba .pdf.enc + .key.enc + _meta.json sang container .book và đọc lại qua openPdf
+ */
+class BookStorageServiceTest {
+    
+    private static final int SEGMENT_SIZE = 1024;
+    private static final List<PageSize> PAGE_SIZES = List.of(new PageSize(595.28f, 841.89f), new PageSize(612, 792));
+    
+    @TempDir
+    Path dir;
+    
+    private EncryptionService encryptionService;
+    private BookStorageService bookStorageService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "segmentSize", SEGMENT_SIZE);
+        ReflectionTestUtils.setField(encryptionService, "aesKeySize", 256);
+        ReflectionTestUtils.setField(encryptionService, "rsaKeySize", 2048);
+        ReflectionTestUtils.setField(encryptionService, "keysPath", dir.resolve("keys").toString());
+        ReflectionTestUtils.setField(encryptionService, "publicKeyFile", dir.resolve("keys/public.pem").toString());
+        ReflectionTestUtils.setField(encryptionService, "privateKeyFile", dir.resolve("keys/private.pem").toString());
+        encryptionService.initializeKeys();
+        
+        bookStorageService = new BookStorageService(encryptionService, objectMapper, null,
+                new DataKeyCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(10)));
+        ReflectionTestUtils.setField(bookStorageService, "booksPath", dir.resolve("books").toString());
+        ReflectionTestUtils.setField(bookStorageService, "tempPath", dir.resolve("temp").toString());
+        Files.createDirectories(dir.resolve("books"));
+    }
+    
+    @Test
+    void testMigrateSegmentedFile() throws Exception {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE + 100);
+        SecretKey key = encryptionService.generateAESKey();
+        Book book = legacyBook(1L, key, Map.of("pageSizes", pageSizesJson()));
+        
+        // .pdf.enc segmented: magic "OLS1" | segmentSize | plaintextLength | noncePrefix | segments
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(
+                plaintext.length, EncryptionService.SEGMENTED_HEADER_LENGTH);
+        Path encryptedFile = dir.resolve("books").resolve(book.getEncryptedFilename());
+        try (OutputStream out = Files.newOutputStream(encryptedFile)) {
+            out.write(ByteBuffer.allocate(EncryptionService.SEGMENTED_HEADER_LENGTH)
+                    .putInt(0x4F4C5331)
+                    .putInt(SEGMENT_SIZE)
+                    .putLong(plaintext.length)
+                    .put(header.noncePrefix())
+                    .array());
+            encryptionService.encryptSegmented(new ByteArrayInputStream(plaintext), out, header, key);
+        }
+        assertArrayEquals(plaintext, readAll(book));
+        
+        Path container = migrate(book);
+        
+        // Segment được chép nguyên, chỉ khác vị trí bắt đầu
+        byte[] oldFile = Files.readAllBytes(encryptedFile);
+        byte[] newFile = Files.readAllBytes(container);
+        BookContainer read = BookContainer.read(container);
+        assertArrayEquals(Arrays.copyOfRange(oldFile, EncryptionService.SEGMENTED_HEADER_LENGTH, oldFile.length),
+                Arrays.copyOfRange(newFile, (int) read.getSegments().dataOffset(), newFile.length));
+        assertArrayEquals(header.noncePrefix(), read.getSegments().noncePrefix());
+        assertMigrated(book, plaintext);
+    }
+    
+    @Test
+    void testMigrateSingleBlockFile() throws Exception {
+        byte[] plaintext = randomBytes(2 * SEGMENT_SIZE + 7);
+        SecretKey key = encryptionService.generateAESKey();
+        EncryptionService.EncryptionResult encrypted = encryptionService.encryptPDF(plaintext, key);
+        Book book = legacyBook(2L, key, Map.of(
+                "iv", Base64.getEncoder().encodeToString(encrypted.getIv()),
+                "pageSizes", pageSizesJson()));
+        Files.write(dir.resolve("books").resolve(book.getEncryptedFilename()), encrypted.getEncryptedData());
+        assertArrayEquals(plaintext, readAll(book));
+        
+        migrate(book);
+        
+        assertMigrated(book, plaintext);
+    }
+    
+    @Test
+    void testFailedMigrationLeavesNoContainer() throws Exception {
+        SecretKey key = encryptionService.generateAESKey();
+        EncryptionService.EncryptionResult encrypted = encryptionService.encryptPDF(randomBytes(500), key);
+        Book book = legacyBook(3L, key, Map.of("iv", Base64.getEncoder().encodeToString(encrypted.getIv())));
+        byte[] corrupted = encrypted.getEncryptedData();
+        corrupted[10] ^= 1;
+        Files.write(dir.resolve("books").resolve(book.getEncryptedFilename()), corrupted);
+        
+        assertThrows(Exception.class, () -> bookStorageService.migrateToContainer(book, "book3.book"));
+        assertFalse(Files.exists(dir.resolve("books/book3.book")));
+        assertFalse(Files.exists(dir.resolve("books/book3.book.tmp")));
+    }
+    
+    private Book legacyBook(Long id, SecretKey key, Map<String, Object> metadata) throws Exception {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle("Book " + id);
+        book.setEncryptedFilename("book" + id + ".pdf.enc");
+        book.setKeyFilename("book" + id + ".key.enc");
+        book.setMetadataFilename("book" + id + "_meta.json");
+        book.setImagesFolder("book" + id + "_images");
+        book.setTotalPages(PAGE_SIZES.size());
+        Path booksDir = dir.resolve("books");
+        Files.write(booksDir.resolve(book.getKeyFilename()), encryptionService.encryptAESKey(key));
+        Files.write(booksDir.resolve(book.getMetadataFilename()), objectMapper.writeValueAsBytes(metadata));
+        return book;
+    }
+    
+    private Path migrate(Book book) throws Exception {
+        String containerFilename = "book" + book.getId() + BookContainer.EXTENSION;
+        bookStorageService.migrateToContainer(book, containerFilename);
+        assertFalse(Files.exists(dir.resolve("books").resolve(containerFilename + ".tmp")));
+        // Files cũ giữ nguyên, caller xóa sau khi cập nhật database
+        assertTrue(Files.exists(dir.resolve("books").resolve(book.getEncryptedFilename())));
+        
+        book.setEncryptedFilename(containerFilename);
+        book.setKeyFilename(containerFilename);
+        book.setMetadataFilename(containerFilename);
+        return dir.resolve("books").resolve(containerFilename);
+    }
+    
+    private void assertMigrated(Book book, byte[] plaintext) throws Exception {
+        BookDescriptor descriptor = BookDescriptor.of(book);
+        assertArrayEquals(plaintext, readAll(book));
+        
+        PdfContent pdf = bookStorageService.openPdf(descriptor);
+        assertTrue(pdf.isSegmented());
+        assertEquals(plaintext.length, pdf.getLength());
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        pdf.writeRange(range, SEGMENT_SIZE - 10, SEGMENT_SIZE + 10);
+        assertArrayEquals(Arrays.copyOfRange(plaintext, SEGMENT_SIZE - 10, SEGMENT_SIZE + 11), range.toByteArray());
+        
+        List<PageSize> pageSizes = bookStorageService.readPageSizes(descriptor);
+        assertEquals(PAGE_SIZES.size(), pageSizes.size());
+        for (int i = 0; i < PAGE_SIZES.size(); i++) {
+            assertEquals(PAGE_SIZES.get(i).getWidth(), pageSizes.get(i).getWidth());
+            assertEquals(PAGE_SIZES.get(i).getHeight(), pageSizes.get(i).getHeight());
+        }
+    }
+    
+    private byte[] readAll(Book book) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bookStorageService.openPdf(BookDescriptor.of(book)).writeTo(out);
+        return out.toByteArray();
+    }
+    
+    private static List<Map<String, Object>> pageSizesJson() {
+        return PAGE_SIZES.stream()
+                .map(size -> Map.<String, Object>of("width", size.getWidth(), "height", size.getHeight()))
+                .toList();
+    }
+    
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
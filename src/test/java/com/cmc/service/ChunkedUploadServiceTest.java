@@ -0,0 +1,217 @@
+package com.cmc.service;
+
+import com.cmc.dto.ChunkedUploadInitRequest;
+import com.cmc.dto.ChunkedUploadSession;
+import com.cmc.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Upload theo chunk: resume sau restart, gửi lại chunk, chunk sai độ dài / checksum, dọn phiên quá hạn
+ */
+class ChunkedUploadServiceTest {
+    
+    private static final int CHUNK_SIZE = 1000;
+    
+    @TempDir
+    Path dir;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private BookStorageService bookStorageService;
+    private User admin;
+    private byte[] file;
+    
+    @BeforeEach
+    void setUp() {
+        bookStorageService = new BookStorageService(null, objectMapper, null, null);
+        ReflectionTestUtils.setField(bookStorageService, "tempPath", dir.toString());
+        admin = new User();
+        admin.setId(1L);
+        file = new byte[2 * CHUNK_SIZE + 345];
+        new Random(1).nextBytes(file);
+    }
+    
+    @Test
+    void testResumeAfterRestart() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession session = service.init(initRequest(sha256(file)), admin);
+        assertEquals(3, session.getTotalChunks());
+        service.writeChunk(session.getUploadId(), 0, sha256(chunk(0)), stream(chunk(0)), admin);
+        service.writeChunk(session.getUploadId(), 2, sha256(chunk(2)), stream(chunk(2)), admin);
+        
+        // Server restart: phiên được đọc lại từ file trạng thái
+        ChunkedUploadService restarted = newService();
+        ChunkedUploadSession resumed = restarted.getSession(session.getUploadId(), admin);
+        assertEquals(List.of(1), resumed.getMissingChunks());
+        
+        restarted.writeChunk(session.getUploadId(), 1, sha256(chunk(1)), stream(chunk(1)), admin);
+        Path spool = restarted.finish(session.getUploadId(), admin);
+        assertArrayEquals(file, Files.readAllBytes(spool));
+        assertEquals(sha256(file), resumed.getSha256());
+        assertNoTempFiles();
+    }
+    
+    @Test
+    void testResentChunkIsUnmarkedUntilVerified() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession session = service.init(initRequest(null), admin);
+        service.writeChunk(session.getUploadId(), 0, sha256(chunk(0)), stream(chunk(0)), admin);
+        
+        // Chunk gửi lại bị hỏng: đã ghi đè vùng của chunk 0 nên chunk 0 phải được coi là còn thiếu, cả sau restart
+        byte[] corrupted = chunk(0);
+        corrupted[10] ^= 1;
+        assertThrows(RuntimeException.class, () -> service.writeChunk(
+                session.getUploadId(), 0, sha256(chunk(0)), stream(corrupted), admin));
+        assertTrue(session.getMissingChunks().contains(0));
+        assertTrue(newService().getSession(session.getUploadId(), admin).getMissingChunks().contains(0));
+        
+        // Gửi lại đúng thì upload hoàn tất bình thường
+        for (int i = 0; i < 3; i++) {
+            service.writeChunk(session.getUploadId(), i, sha256(chunk(i)), stream(chunk(i)), admin);
+        }
+        assertArrayEquals(file, Files.readAllBytes(service.finish(session.getUploadId(), admin)));
+    }
+    
+    @Test
+    void testChunkSizeAndChecksumMismatch() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession session = service.init(initRequest(null), admin);
+        String uploadId = session.getUploadId();
+        
+        byte[] shortChunk = Arrays.copyOf(chunk(0), CHUNK_SIZE - 1);
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, 0, sha256(shortChunk), stream(shortChunk), admin));
+        assertTrue(e.getMessage().contains("incomplete"));
+        
+        byte[] longChunk = Arrays.copyOf(chunk(0), CHUNK_SIZE + 1);
+        e = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, 0, sha256(longChunk), stream(longChunk), admin));
+        assertTrue(e.getMessage().contains("larger"));
+        
+        // Chunk cuối ngắn hơn chunkSize
+        e = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, 2, sha256(chunk(1)), stream(chunk(1)), admin));
+        assertTrue(e.getMessage().contains("larger"));
+        
+        e = assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, 1, sha256(chunk(0)), stream(chunk(1)), admin));
+        assertTrue(e.getMessage().contains("Checksum mismatch"));
+        
+        assertThrows(RuntimeException.class,
+                () -> service.writeChunk(uploadId, 3, sha256(chunk(0)), stream(chunk(0)), admin));
+        assertEquals(List.of(0, 1, 2), session.getMissingChunks());
+        
+        RuntimeException missing = assertThrows(RuntimeException.class, () -> service.finish(uploadId, admin));
+        assertTrue(missing.getMessage().contains("Missing chunks"));
+    }
+    
+    @Test
+    void testWholeFileChecksumMismatch() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession session = service.init(initRequest(sha256(chunk(0))), admin);
+        for (int i = 0; i < 3; i++) {
+            service.writeChunk(session.getUploadId(), i, sha256(chunk(i)), stream(chunk(i)), admin);
+        }
+        
+        RuntimeException e = assertThrows(RuntimeException.class, () -> service.finish(session.getUploadId(), admin));
+        assertTrue(e.getMessage().contains("Checksum mismatch"));
+    }
+    
+    @Test
+    void testSessionOfAnotherUser() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession session = service.init(initRequest(null), admin);
+        User other = new User();
+        other.setId(2L);
+        
+        assertThrows(RuntimeException.class, () -> service.getSession(session.getUploadId(), other));
+        assertThrows(RuntimeException.class, () -> service.writeChunk(
+                session.getUploadId(), 0, sha256(chunk(0)), stream(chunk(0)), other));
+        assertThrows(RuntimeException.class, () -> service.getSession("../../etc/passwd", admin));
+    }
+    
+    @Test
+    void testExpiredSessionsArePurged() throws IOException {
+        ChunkedUploadService service = newService();
+        ChunkedUploadSession expired = service.init(initRequest(null), admin);
+        service.writeChunk(expired.getUploadId(), 0, sha256(chunk(0)), stream(chunk(0)), admin);
+        
+        // Phiên cập nhật lần cuối 2 ngày trước, file trạng thái tạm sót lại sau crash
+        Path state = dir.resolve("chunked").resolve(expired.getUploadId() + ".json");
+        ChunkedUploadSession stored = objectMapper.readValue(state.toFile(), ChunkedUploadSession.class);
+        stored.setUpdatedAt(LocalDateTime.now().minusDays(2));
+        Files.write(state, objectMapper.writeValueAsBytes(stored));
+        Path leftover = Files.write(state.resolveSibling(expired.getUploadId() + ".json.42.tmp"), new byte[] {'{'});
+        Files.setLastModifiedTime(leftover, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        
+        ChunkedUploadService restarted = newService();
+        ChunkedUploadSession active = restarted.init(initRequest(null), admin);
+        
+        assertFalse(Files.exists(state));
+        assertFalse(Files.exists(state.resolveSibling(expired.getUploadId() + ".part")));
+        assertFalse(Files.exists(leftover));
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> restarted.getSession(expired.getUploadId(), admin));
+        assertTrue(e.getMessage().contains("not found"));
+        assertEquals(active.getUploadId(), restarted.getSession(active.getUploadId(), admin).getUploadId());
+    }
+    
+    private ChunkedUploadService newService() {
+        ChunkedUploadService service = new ChunkedUploadService(bookStorageService, objectMapper);
+        ReflectionTestUtils.setField(service, "chunkSize", (long) CHUNK_SIZE);
+        ReflectionTestUtils.setField(service, "maxFileSize", 1L << 20);
+        ReflectionTestUtils.setField(service, "sessionTtlHours", 24L);
+        return service;
+    }
+    
+    private ChunkedUploadInitRequest initRequest(String sha256) {
+        ChunkedUploadInitRequest request = new ChunkedUploadInitRequest();
+        request.setFilename("book.pdf");
+        request.setTotalSize((long) file.length);
+        request.setSha256(sha256);
+        request.setTitle("Book");
+        return request;
+    }
+    
+    private byte[] chunk(int index) {
+        int from = index * CHUNK_SIZE;
+        return Arrays.copyOfRange(file, from, Math.min(file.length, from + CHUNK_SIZE));
+    }
+    
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("chunked"))) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+    
+    private static ByteArrayInputStream stream(byte[] bytes) {
+        return new ByteArrayInputStream(bytes);
+    }
+    
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(BookStorageService.sha256Digest().digest(bytes));
+    }
+}
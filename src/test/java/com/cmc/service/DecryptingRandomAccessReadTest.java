@@ -0,0 +1,128 @@
+package com.cmc.service;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Đọc ngẫu nhiên trên file segmented, giải mã từng segment theo yêu cầu
+ */
+class DecryptingRandomAccessReadTest {
+    
+    private static final int SEGMENT_SIZE = 1024;
+    
+    @TempDir
+    Path dir;
+    
+    private EncryptionService encryptionService;
+    private SecretKey key;
+    private byte[] plaintext;
+    private EncryptionService.SegmentedHeader header;
+    private Path file;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "segmentSize", SEGMENT_SIZE);
+        ReflectionTestUtils.setField(encryptionService, "aesKeySize", 256);
+        key = encryptionService.generateAESKey();
+        
+        // Nhiều segment hơn số segment được giữ trong bộ nhớ
+        plaintext = new byte[12 * SEGMENT_SIZE + 300];
+        new Random(42).nextBytes(plaintext);
+        header = encryptionService.newSegmentedHeader(plaintext.length, 64);
+        file = dir.resolve("book.enc");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(new byte[64]);
+            encryptionService.encryptSegmented(new ByteArrayInputStream(plaintext), out, header, key);
+        }
+    }
+    
+    @Test
+    void testSequentialRead() throws IOException {
+        try (RandomAccessRead read = open()) {
+            assertEquals(plaintext.length, read.length());
+            byte[] all = new byte[plaintext.length];
+            int total = 0;
+            int count;
+            while ((count = read.read(all, total, Math.min(700, all.length - total))) > 0) {
+                total += count;
+            }
+            assertEquals(plaintext.length, total);
+            assertArrayEquals(plaintext, all);
+            assertTrue(read.isEOF());
+            assertEquals(-1, read.read());
+        }
+    }
+    
+    @Test
+    void testSeekAcrossSegments() throws IOException {
+        Random random = new Random(7);
+        try (RandomAccessRead read = open()) {
+            for (int i = 0; i < 200; i++) {
+                int position = random.nextInt(plaintext.length);
+                int length = Math.min(random.nextInt(3 * SEGMENT_SIZE), plaintext.length - position);
+                read.seek(position);
+                byte[] buffer = new byte[length];
+                assertEquals(length, read.read(buffer, 0, length));
+                assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + length), buffer,
+                        "read " + length + " bytes at " + position);
+                assertEquals(position + length, read.getPosition());
+            }
+            read.seek(SEGMENT_SIZE - 1);
+            assertEquals(plaintext[SEGMENT_SIZE - 1] & 0xFF, read.read());
+            assertEquals(plaintext[SEGMENT_SIZE] & 0xFF, read.read());
+        }
+    }
+    
+    @Test
+    void testView() throws IOException {
+        try (RandomAccessRead read = open();
+             RandomAccessRead view = read.createView(SEGMENT_SIZE - 10, 20)) {
+            byte[] buffer = new byte[20];
+            assertEquals(20, view.read(buffer, 0, 20));
+            assertArrayEquals(Arrays.copyOfRange(plaintext, SEGMENT_SIZE - 10, SEGMENT_SIZE + 10), buffer);
+            assertTrue(view.isEOF());
+        }
+    }
+    
+    @Test
+    void testModifiedSegmentIsRejected() throws IOException {
+        byte[] encrypted = Files.readAllBytes(file);
+        encrypted[(int) header.segmentOffset(5) + 3] ^= 1;
+        Files.write(file, encrypted);
+        
+        try (RandomAccessRead read = open()) {
+            read.seek(4L * SEGMENT_SIZE);
+            assertEquals(plaintext[4 * SEGMENT_SIZE] & 0xFF, read.read());
+            read.seek(5L * SEGMENT_SIZE);
+            assertThrows(IOException.class, read::read);
+        }
+    }
+    
+    @Test
+    void testClosed() throws IOException {
+        RandomAccessRead read = open();
+        read.close();
+        assertTrue(read.isClosed());
+        assertThrows(IOException.class, () -> read.seek(0));
+        read.close();
+    }
+    
+    private RandomAccessRead open() throws IOException {
+        return new DecryptingRandomAccessRead(encryptionService, file, header, key);
+    }
+}
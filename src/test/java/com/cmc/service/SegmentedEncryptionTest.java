@@ -0,0 +1,191 @@
+package com.cmc.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Định dạng segmented AES-GCM: mã hóa / giải mã khứ hồi, giải mã một đoạn và phát hiện file bị sửa
+ */
+class SegmentedEncryptionTest {
+    
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int TAG_LENGTH = 16;
+    
+    @TempDir
+    Path dir;
+    
+    private EncryptionService encryptionService;
+    private SecretKey key;
+    
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService();
+        ReflectionTestUtils.setField(encryptionService, "segmentSize", SEGMENT_SIZE);
+        ReflectionTestUtils.setField(encryptionService, "aesKeySize", 256);
+        key = encryptionService.generateAESKey();
+    }
+    
+    @Test
+    void testEmptyFile() throws IOException {
+        byte[] plaintext = new byte[0];
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(0, 0);
+        Path file = encrypt(plaintext, header);
+        
+        // Vẫn có một segment rỗng mang tag xác thực
+        assertEquals(1, header.segmentCount());
+        assertEquals(TAG_LENGTH, Files.size(file));
+        assertArrayEquals(plaintext, decrypt(file, header));
+    }
+    
+    @Test
+    void testExactlyOneSegment() throws IOException {
+        byte[] plaintext = randomBytes(SEGMENT_SIZE);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        assertEquals(1, header.segmentCount());
+        assertEquals(SEGMENT_SIZE + TAG_LENGTH, Files.size(file));
+        assertArrayEquals(plaintext, decrypt(file, header));
+    }
+    
+    @Test
+    void testOneSegmentPlusOneByte() throws IOException {
+        byte[] plaintext = randomBytes(SEGMENT_SIZE + 1);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        assertEquals(2, header.segmentCount());
+        assertEquals(SEGMENT_SIZE + 1 + 2 * TAG_LENGTH, Files.size(file));
+        assertArrayEquals(plaintext, decrypt(file, header));
+    }
+    
+    @Test
+    void testDataAfterHeaderOffset() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE + 17);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 100);
+        Path file = dir.resolve("offset.enc");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(new byte[100]);
+            encryptionService.encryptSegmented(new ByteArrayInputStream(plaintext), out, header, key);
+        }
+        
+        assertArrayEquals(plaintext, decrypt(file, header));
+    }
+    
+    @Test
+    void testRangesWithinAndAcrossSegments() throws IOException {
+        byte[] plaintext = randomBytes(5 * SEGMENT_SIZE - 300);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        long[][] ranges = {
+                {100, 900},                                   // giữa một segment
+                {100, 2 * SEGMENT_SIZE + 500},                // bắt đầu và kết thúc giữa segment, qua 3 segment
+                {SEGMENT_SIZE - 1, SEGMENT_SIZE},             // 2 byte hai bên ranh giới segment
+                {SEGMENT_SIZE, 2 * SEGMENT_SIZE - 1},         // đúng một segment
+                {3000, 3000},                                 // một byte
+                {4 * SEGMENT_SIZE + 10, plaintext.length - 1} // phần cuối của segment cuối
+        };
+        for (long[] range : ranges) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encryptionService.decryptSegmented(file, header, key, out, range[0], range[1]);
+            assertArrayEquals(Arrays.copyOfRange(plaintext, (int) range[0], (int) range[1] + 1), out.toByteArray(),
+                    "range " + range[0] + "-" + range[1]);
+        }
+    }
+    
+    @Test
+    void testTruncatedFileIsRejected() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        byte[] encrypted = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(encrypted, encrypted.length - 1));
+        assertThrows(IOException.class, () -> decrypt(file, header));
+        
+        // Bỏ hẳn segment cuối
+        Files.write(file, Arrays.copyOf(encrypted, (int) header.segmentOffset(2)));
+        assertThrows(IOException.class, () -> decrypt(file, header));
+    }
+    
+    @Test
+    void testShortenedLengthIsRejected() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        // Header bị sửa chỉ còn 2 segment: segment 1 không mang cờ segment cuối trong AAD
+        EncryptionService.SegmentedHeader shortened = new EncryptionService.SegmentedHeader(
+                SEGMENT_SIZE, 2L * SEGMENT_SIZE, header.noncePrefix(), 0);
+        assertThrows(IOException.class, () -> decrypt(file, shortened));
+    }
+    
+    @Test
+    void testReorderedSegmentsAreRejected() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT_SIZE);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        byte[] encrypted = Files.readAllBytes(file);
+        int segment = SEGMENT_SIZE + TAG_LENGTH;
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, 0, swapped, segment, segment);
+        System.arraycopy(encrypted, segment, swapped, 0, segment);
+        Files.write(file, swapped);
+        
+        assertThrows(IOException.class, () -> decrypt(file, header));
+    }
+    
+    @Test
+    void testModifiedByteIsRejected() throws IOException {
+        byte[] plaintext = randomBytes(2 * SEGMENT_SIZE);
+        EncryptionService.SegmentedHeader header = encryptionService.newSegmentedHeader(plaintext.length, 0);
+        Path file = encrypt(plaintext, header);
+        
+        byte[] encrypted = Files.readAllBytes(file);
+        encrypted[SEGMENT_SIZE + TAG_LENGTH + 5] ^= 1;
+        Files.write(file, encrypted);
+        
+        // Đoạn chỉ nằm trong segment 0 vẫn đọc được, đoạn chạm segment 1 thì bị từ chối
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decryptSegmented(file, header, key, out, 0, SEGMENT_SIZE - 1);
+        assertArrayEquals(Arrays.copyOf(plaintext, SEGMENT_SIZE), out.toByteArray());
+        assertThrows(IOException.class, () -> encryptionService.decryptSegmented(
+                file, header, key, new ByteArrayOutputStream(), SEGMENT_SIZE - 1, SEGMENT_SIZE));
+    }
+    
+    private Path encrypt(byte[] plaintext, EncryptionService.SegmentedHeader header) throws IOException {
+        Path file = Files.createTempFile(dir, "segmented", ".enc");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            encryptionService.encryptSegmented(new ByteArrayInputStream(plaintext), out, header, key);
+        }
+        return file;
+    }
+    
+    private byte[] decrypt(Path file, EncryptionService.SegmentedHeader header) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decryptSegmented(file, header, key, out);
+        return out.toByteArray();
+    }
+    
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,117 @@
+package com.cmc.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Bản SIMD (VectorBlender) phải cho kết quả giống hệt từng byte bản scalar
+ */
+class WatermarkCompositorTest {
+    
+    private WatermarkCompositor scalar;
+    private WatermarkCompositor simd;
+    
+    @BeforeEach
+    void setUp() {
+        scalar = new WatermarkCompositor(false);
+        simd = new WatermarkCompositor(true);
+        // Surefire chạy với --add-modules jdk.incubator.vector (vector.jvm.args)
+        assumeTrue(simd.isSimd(), "Vector API module not available");
+    }
+    
+    @Test
+    void testScalarWhenDisabled() {
+        assertFalse(scalar.isSimd());
+    }
+    
+    @Test
+    void testAllAlphaAndChannelValues() {
+        // Mỗi hàng: một cặp (alpha, màu nền), 256 giá trị màu mask; kiểm tra phép chia 255 thay bằng nhân/dịch bit
+        int[] mask = new int[256 * 256];
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                mask[a * 256 + c] = (a << 24) | (c << 16) | ((255 - c) << 8) | (c ^ 0x5A);
+            }
+        }
+        for (int background = 0; background < 256; background++) {
+            int[] expected = new int[mask.length];
+            Arrays.fill(expected, (background << 16) | ((255 - background) << 8) | (background ^ 0xA5));
+            int[] actual = expected.clone();
+            
+            scalar.blend(expected, 256, mask, 0, 0, 256, 256);
+            simd.blend(actual, 256, mask, 0, 0, 256, 256);
+            
+            assertArrayEquals(expected, actual, "background " + background);
+        }
+    }
+    
+    @Test
+    void testOddWidthsAndTails() {
+        Random random = new Random(2024);
+        int lanes = 16;
+        int[] widths = { 1, 2, 3, 7, lanes - 1, lanes, lanes + 1, 2 * lanes + 3, 33, 101, 257, 1001 };
+        for (int width : widths) {
+            for (int height : new int[] { 1, 5 }) {
+                // Raster đích rộng hơn và lệch vị trí: vùng ngoài mask phải giữ nguyên
+                int dstWidth = width + 13;
+                int x = 5;
+                int y = 2;
+                int[] dst = randomPixels(random, dstWidth * (height + 4), false);
+                int[] mask = randomPixels(random, width * height, true);
+                
+                int[] expected = dst.clone();
+                int[] actual = dst.clone();
+                scalar.blend(expected, dstWidth, mask, x, y, width, height);
+                simd.blend(actual, dstWidth, mask, x, y, width, height);
+                
+                assertArrayEquals(expected, actual, "width " + width + ", height " + height);
+                assertEquals(dst[0], actual[0]);
+                assertEquals(dst[dst.length - 1], actual[actual.length - 1]);
+            }
+        }
+    }
+    
+    @Test
+    void testTransparentAndOpaqueRuns() {
+        // Đoạn trong suốt hoàn toàn (SIMD bỏ qua cả vector) xen đoạn đục và bán trong suốt
+        int width = 203;
+        int[] mask = new int[width];
+        for (int i = 0; i < width; i++) {
+            int alpha = (i / 37) % 3 == 0 ? 0 : (i / 37) % 3 == 1 ? 255 : 128;
+            mask[i] = (alpha << 24) | 0x336699;
+        }
+        int[] dst = randomPixels(new Random(7), width, false);
+        int[] expected = dst.clone();
+        int[] actual = dst.clone();
+        
+        scalar.blend(expected, width, mask, 0, 0, width, 1);
+        simd.blend(actual, width, mask, 0, 0, width, 1);
+        
+        assertArrayEquals(expected, actual);
+    }
+    
+    private static int[] randomPixels(Random random, int length, boolean withAlpha) {
+        int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            int rgb = random.nextInt(1 << 24);
+            if (!withAlpha) {
+                pixels[i] = rgb;
+                continue;
+            }
+            // Nhiều pixel trong suốt / đục hoàn toàn như mask watermark thật
+            int alpha = switch (random.nextInt(4)) {
+                case 0 -> 0;
+                case 1 -> 255;
+                default -> random.nextInt(256);
+            };
+            pixels[i] = (alpha << 24) | rgb;
+        }
+        return pixels;
+    }
+}